@@ -0,0 +1,162 @@
+package search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import search.v1.EntityType;
+import search.v1.SearchRequest;
+import search.v1.SearchResponse;
+import search.v1.SearchServiceGrpc;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Много запросов через один канал и async stub; вывод - NDJSON, по строке на запрос.
+// Формат входной строки: query[\tsize[\tTYPES]], например "metallica\t10\tTRACK,ARTIST"
+public class QueryBatchCommand {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final long DEADLINE_MS = 10_000;
+
+    public static void batch(String file, int concurrency, String host, int port) throws Exception {
+        BufferedReader in = "-".equals(file)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8);
+        try (in) {
+            run(in, concurrency, host, port, false);
+        }
+    }
+
+    public static void repl(String host, int port) throws Exception {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        run(in, 1, host, port, true);
+    }
+
+    private static void run(BufferedReader in, int concurrency, String host, int port, boolean interactive)
+            throws Exception {
+        ManagedChannel channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
+
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicInteger errors = new AtomicInteger();
+        PrintStream out = System.out;
+        int seq = 0;
+        long startNs = System.nanoTime();
+
+        try {
+            SearchServiceGrpc.SearchServiceStub stub = SearchServiceGrpc.newStub(channel);
+
+            String line;
+            while (true) {
+                if (interactive) {
+                    // ждём ответ на предыдущий запрос, чтобы prompt не перемешался с выводом
+                    inFlight.acquire();
+                    inFlight.release();
+                    System.err.print("> ");
+                    System.err.flush();
+                }
+                line = in.readLine();
+                if (line == null) break;
+                if (line.isBlank() || line.startsWith("#")) continue;
+
+                SearchRequest req = parseLine(line);
+                if (req.getQuery().isEmpty()) continue;
+
+                inFlight.acquire();
+                int n = seq++;
+                long sentNs = System.nanoTime();
+
+                stub.withDeadlineAfter(DEADLINE_MS, TimeUnit.MILLISECONDS)
+                        .search(req, new StreamObserver<>() {
+                            @Override
+                            public void onNext(SearchResponse resp) {
+                                print(out, toJson(n, req, sentNs, resp, null));
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                                errors.incrementAndGet();
+                                print(out, toJson(n, req, sentNs, null, Status.fromThrowable(t)));
+                                inFlight.release();
+                            }
+
+                            @Override
+                            public void onCompleted() {
+                                inFlight.release();
+                            }
+                        });
+            }
+
+            inFlight.acquire(concurrency);
+
+            double totalMs = (System.nanoTime() - startNs) / 1e6;
+            System.err.printf("queries=%d errors=%d total_ms=%.1f qps=%.1f%n",
+                    seq, errors.get(), totalMs, totalMs > 0 ? seq * 1000.0 / totalMs : 0.0);
+        } finally {
+            channel.shutdown();
+            channel.awaitTermination(3, TimeUnit.SECONDS);
+        }
+    }
+
+    private static SearchRequest parseLine(String line) {
+        String[] parts = line.split("\t");
+        SearchRequest.Builder req = SearchRequest.newBuilder()
+                .setQuery(parts[0].trim())
+                .setSize(parts.length > 1 ? SearchClientMain.parseIntOrDefault(parts[1].trim(), 10) : 10);
+
+        if (parts.length > 2 && !parts[2].isBlank()) {
+            for (String t : parts[2].split(",")) {
+                EntityType et = SearchClientMain.parseType(t.trim());
+                if (et != EntityType.ENTITY_TYPE_UNSPECIFIED) {
+                    req.addTypes(et);
+                }
+            }
+        }
+        return req.build();
+    }
+
+    private static ObjectNode toJson(int seq, SearchRequest req, long sentNs, SearchResponse resp, Status error) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("seq", seq);
+        node.put("query", req.getQuery());
+        node.put("latencyMs", (System.nanoTime() - sentNs) / 1e6);
+
+        if (error != null) {
+            node.put("status", error.getCode().name());
+            node.put("error", error.getDescription());
+            return node;
+        }
+
+        node.put("status", Status.Code.OK.name());
+        ArrayNode results = node.putArray("results");
+        resp.getResultsList().forEach(r -> results.addObject()
+                .put("type", r.getType().name())
+                .put("id", r.getId())
+                .put("title", r.getTitle())
+                .put("subtitle", r.getSubtitle())
+                .put("score", r.getScore()));
+        return node;
+    }
+
+    private static void print(PrintStream out, ObjectNode node) {
+        String json;
+        try {
+            json = MAPPER.writeValueAsString(node);
+        } catch (Exception e) {
+            json = "{\"error\":\"json: " + e.getMessage() + "\"}";
+        }
+        synchronized (out) {
+            out.println(json);
+        }
+    }
+}
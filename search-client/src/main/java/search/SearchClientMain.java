@@ -38,6 +38,24 @@ public class SearchClientMain {
             return;
         }
 
+        if (args.length >= 2 && "batch".equalsIgnoreCase(args[0])) {
+            // args: batch <file|-> [concurrency] [host] [port]
+            String file = args[1];
+            int concurrency = args.length > 2 ? Math.max(1, parseIntOrDefault(args[2], 16)) : 16;
+            String host = args.length > 3 ? args[3] : "localhost";
+            int port = args.length > 4 ? parseIntOrDefault(args[4], 9090) : 9090;
+            QueryBatchCommand.batch(file, concurrency, host, port);
+            return;
+        }
+
+        if (args.length >= 1 && "repl".equalsIgnoreCase(args[0])) {
+            // args: repl [host] [port]
+            String host = args.length > 1 ? args[1] : "localhost";
+            int port = args.length > 2 ? parseIntOrDefault(args[2], 9090) : 9090;
+            QueryBatchCommand.repl(host, port);
+            return;
+        }
+
         String query = args.length > 0 ? args[0] : "metallica";
         int size = args.length > 1 ? parseIntOrDefault(args[1], 10) : 10;
         String typesArg = args.length > 2 ? args[2] : "";
@@ -81,7 +99,7 @@ public class SearchClientMain {
         }
     }
 
-    private static int parseIntOrDefault(String s, int def) {
+    static int parseIntOrDefault(String s, int def) {
         try {
             return Integer.parseInt(s);
         } catch (Exception e) {
@@ -89,7 +107,7 @@ public class SearchClientMain {
         }
     }
 
-    private static EntityType parseType(String s) {
+    static EntityType parseType(String s) {
         if (s == null) return EntityType.ENTITY_TYPE_UNSPECIFIED;
         String x = s.toUpperCase(Locale.ROOT);
         return switch (x) {
@@ -6,6 +6,7 @@ import co.elastic.clients.elasticsearch.core.BulkResponse;
 import co.elastic.clients.elasticsearch.core.IndexResponse;
 import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
 import co.elastic.clients.elasticsearch.core.bulk.IndexOperation;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
 import search.v1.Artist;
 import search.v1.EntityType;
@@ -22,8 +23,13 @@ public class EsUpsertRepository {
 
     private final ElasticsearchClient es;
 
-    public EsUpsertRepository(ElasticsearchClient es) {
+    // клиент со сжатием тел запросов, только для _bulk
+    private final ElasticsearchClient bulkEs;
+
+    public EsUpsertRepository(ElasticsearchClient es,
+                              @Qualifier("bulkElasticsearchClient") ElasticsearchClient bulkEs) {
         this.es = es;
+        this.bulkEs = bulkEs;
     }
 
     // Пишем через alias (у тебя они есть: tracks, artists, playlists)
@@ -76,6 +82,6 @@ public class EsUpsertRepository {
         }
 
         BulkRequest req = new BulkRequest.Builder().operations(ops).build();
-        return es.bulk(req);
+        return bulkEs.bulk(req);
     }
 }
@@ -1,13 +1,22 @@
 package search.service;
 
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.Result;
 import search.service.es.EsSearchRepository;
+import search.service.facet.FacetCache;
+import search.service.hot.HotEntityIndex;
 import search.v1.EntityType;
+import search.v1.FacetsRequest;
+import search.v1.FacetsResponse;
+import search.v1.SearchFilters;
 import search.v1.SearchRequest;
 import search.v1.SearchResponse;
 import search.v1.SearchResult;
 import search.v1.SearchServiceGrpc;
 import io.grpc.Status;
 import net.devh.boot.grpc.server.service.GrpcService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
@@ -15,18 +24,31 @@ import java.util.*;
 @GrpcService
 public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
 
+    private static final Logger log = LoggerFactory.getLogger(GrpcSearchService.class);
+
     private final EsSearchRepository es;
 
     private final EsUpsertRepository upsertRepository;
 
-    public GrpcSearchService(EsSearchRepository searchRepository, EsUpsertRepository upsertRepository) {
+    private final FacetCache facetCache;
+
+    private final SlowQueryLog slowQueryLog;
+
+    private final HotEntityIndex hotIndex;
+
+    public GrpcSearchService(EsSearchRepository searchRepository, EsUpsertRepository upsertRepository,
+                             FacetCache facetCache, SlowQueryLog slowQueryLog, HotEntityIndex hotIndex) {
         this.es = searchRepository;
         this.upsertRepository = upsertRepository;
+        this.facetCache = facetCache;
+        this.slowQueryLog = slowQueryLog;
+        this.hotIndex = hotIndex;
     }
 
 
     @Override
     public void search(SearchRequest request, io.grpc.stub.StreamObserver<SearchResponse> responseObserver) {
+        long startNs = System.nanoTime();
         String query = request.getQuery() == null ? "" : request.getQuery().trim();
         if (query.isEmpty()) {
             responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("query must not be empty").asRuntimeException());
@@ -37,49 +59,135 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
         size = Math.min(size, 50); // защита
 
         Set<EntityType> types = normalizeTypes(request.getTypesList());
+        EsSearchRepository.Filters filters = toFilters(request);
+
+        // hot tier: уверенный локальный ответ для head-запросов без фильтров, ES не спрашиваем
+        boolean hotEligible = filters.equals(EsSearchRepository.Filters.NONE);
+        if (hotEligible && hotIndex.localAnswerEnabled()) {
+            HotEntityIndex.Result local = hotIndex.search(query, toRawTypes(types), size);
+            if (local.confident()) {
+                respond(local.results(), size, responseObserver);
+                slowQueryLog.record(query, size, filters, List.of(), elapsedMs(startNs), Status.Code.OK, null);
+                return;
+            }
+        }
+
+        // статистика по типам, успевшим ответить: нужна slow-логу и при ошибке
+        List<EsSearchRepository.TypeResults> perType = new ArrayList<>();
         try {
-            List<EsSearchRepository.RawResult> all = new ArrayList<>();
 
             // MVP: делаем 3 отдельных запроса и мерджим по score
-            if (types.contains(EntityType.TRACK)) {
-                all.addAll(es.searchTracks(query, size));
+            if (types.contains(EntityType.TRACK) && filters.appliesTo(EsSearchRepository.RawResult.Type.TRACK)) {
+                perType.add(es.searchTracks(query, size, filters));
             }
-            if (types.contains(EntityType.ARTIST)) {
-                all.addAll(es.searchArtists(query, size));
+            if (types.contains(EntityType.ARTIST) && filters.appliesTo(EsSearchRepository.RawResult.Type.ARTIST)) {
+                perType.add(es.searchArtists(query, size, filters));
             }
-            if (types.contains(EntityType.PLAYLIST)) {
-                all.addAll(es.searchPlaylists(query, size));
+            if (types.contains(EntityType.PLAYLIST) && filters.appliesTo(EsSearchRepository.RawResult.Type.PLAYLIST)) {
+                perType.add(es.searchPlaylists(query, size, filters));
             }
 
-            all.sort(Comparator.comparing(EsSearchRepository.RawResult::score).reversed());
-            if (all.size() > size) {
-                all = all.subList(0, size);
-            }
+            List<EsSearchRepository.RawResult> all = new ArrayList<>();
+            perType.forEach(r -> all.addAll(r.results()));
+            respond(all, size, responseObserver);
 
-            SearchResponse.Builder resp = SearchResponse.newBuilder();
-            for (EsSearchRepository.RawResult r : all) {
-                resp.addResults(SearchResult.newBuilder()
-                        .setType(mapType(r.type()))
-                        .setId(r.id())
-                        .setTitle(r.title())
-                        .setSubtitle(r.subtitle())
-                        .setScore(r.score())
-                        .build()
-                );
-            }
+            slowQueryLog.record(query, size, filters, perType, elapsedMs(startNs), Status.Code.OK, null);
 
-            responseObserver.onNext(resp.build());
-            responseObserver.onCompleted();
+        } catch (Exception e) {
+            if (!esUnavailable(e)) {
+                responseObserver.onError(Status.INTERNAL
+                        .withDescription("Internal error: " + e.getMessage())
+                        .asRuntimeException());
+                slowQueryLog.record(query, size, filters, perType, elapsedMs(startNs), Status.Code.INTERNAL,
+                        e.getMessage());
+                return;
+            }
 
-        } catch (IOException e) {
+            // ES недоступен: лучше популярные локальные хиты (hot tier, только без фильтров), чем ошибка
+            List<EsSearchRepository.RawResult> local = hotEligible && hotIndex.enabled()
+                    ? hotIndex.search(query, toRawTypes(types), size).results()
+                    : List.of();
+            if (!local.isEmpty()) {
+                respond(local, size, responseObserver);
+                slowQueryLog.record(query, size, filters, perType, elapsedMs(startNs), Status.Code.UNAVAILABLE,
+                        e.getMessage() + " (served from hot tier)");
+                return;
+            }
             responseObserver.onError(Status.UNAVAILABLE
                     .withDescription("Elasticsearch unavailable: " + e.getMessage())
                     .asRuntimeException());
-        } catch (Exception e) {
-            responseObserver.onError(Status.INTERNAL
-                    .withDescription("Internal error: " + e.getMessage())
+            slowQueryLog.record(query, size, filters, perType, elapsedMs(startNs), Status.Code.UNAVAILABLE,
+                    e.getMessage());
+        }
+    }
+
+    // сеть/транспорт или 5xx от ES (503, all shards failed): кластер не может ответить, запрос тут ни при чём
+    private static boolean esUnavailable(Exception e) {
+        return e instanceof IOException
+                || e instanceof ElasticsearchException ee && ee.status() >= 500;
+    }
+
+    private static long elapsedMs(long startNs) {
+        return (System.nanoTime() - startNs) / 1_000_000;
+    }
+
+    private static void respond(List<EsSearchRepository.RawResult> all, int size,
+                                io.grpc.stub.StreamObserver<SearchResponse> responseObserver) {
+        List<EsSearchRepository.RawResult> sorted = new ArrayList<>(all);
+        sorted.sort(Comparator.comparing(EsSearchRepository.RawResult::score).reversed());
+        List<EsSearchRepository.RawResult> top = sorted.size() > size ? sorted.subList(0, size) : sorted;
+
+        SearchResponse.Builder resp = SearchResponse.newBuilder();
+        for (EsSearchRepository.RawResult r : top) {
+            resp.addResults(SearchResult.newBuilder()
+                    .setType(mapType(r.type()))
+                    .setId(r.id())
+                    .setTitle(r.title())
+                    .setSubtitle(r.subtitle())
+                    .setScore(r.score())
+                    .build()
+            );
+        }
+
+        responseObserver.onNext(resp.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void facets(FacetsRequest request, io.grpc.stub.StreamObserver<FacetsResponse> responseObserver) {
+        int size = request.getSize() <= 0 ? 10 : Math.min(request.getSize(), 100);
+
+        if (!facetCache.ready()) {
+            responseObserver.onError(Status.UNAVAILABLE
+                    .withDescription("facet cache is not built yet")
                     .asRuntimeException());
+            return;
+        }
+
+        // только память процесса, в ES не ходим
+        responseObserver.onNext(FacetsResponse.newBuilder()
+                .addAllFacets(facetCache.facets(normalizeTypes(request.getTypesList()), size))
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    private static EsSearchRepository.Filters toFilters(SearchRequest request) {
+        if (!request.hasFilters()) {
+            return EsSearchRepository.Filters.NONE;
         }
+        SearchFilters f = request.getFilters();
+        List<String> tags = f.getTagsList().stream()
+                .map(String::trim)
+                .filter(t -> !t.isEmpty())
+                .toList();
+        return new EsSearchRepository.Filters(
+                f.getGenre().trim(),
+                tags,
+                Math.max(f.getYearFrom(), 0),
+                Math.max(f.getYearTo(), 0),
+                Math.max(f.getMinPopularity(), 0),
+                f.getCountry().trim()
+        );
     }
 
     private static Set<EntityType> normalizeTypes(List<EntityType> in) {
@@ -98,6 +206,14 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
         return set;
     }
 
+    private static Set<EsSearchRepository.RawResult.Type> toRawTypes(Set<EntityType> types) {
+        EnumSet<EsSearchRepository.RawResult.Type> out = EnumSet.noneOf(EsSearchRepository.RawResult.Type.class);
+        if (types.contains(EntityType.TRACK)) out.add(EsSearchRepository.RawResult.Type.TRACK);
+        if (types.contains(EntityType.ARTIST)) out.add(EsSearchRepository.RawResult.Type.ARTIST);
+        if (types.contains(EntityType.PLAYLIST)) out.add(EsSearchRepository.RawResult.Type.PLAYLIST);
+        return out;
+    }
+
     private static EntityType mapType(EsSearchRepository.RawResult.Type t) {
         return switch (t) {
             case TRACK -> EntityType.TRACK;
@@ -119,6 +235,7 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
             return;
         }
 
+        List<search.v1.Entity> written = List.of();
         try {
             search.v1.Entity entity = request.getEntity();
 
@@ -128,6 +245,7 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
                 case TRACK -> {
                     var t = entity.getTrack();
                     var r = upsertRepository.upsertTrack(t);
+                    facetCache.onIndexed(entity, r.result() == Result.Created);
                     resp.setType(search.v1.EntityType.TRACK)
                             .setId(t.getId())
                             .setIndex(upsertRepository.indexName(search.v1.EntityType.TRACK))
@@ -136,6 +254,7 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
                 case ARTIST -> {
                     var a = entity.getArtist();
                     var r = upsertRepository.upsertArtist(a);
+                    facetCache.onIndexed(entity, r.result() == Result.Created);
                     resp.setType(search.v1.EntityType.ARTIST)
                             .setId(a.getId())
                             .setIndex(upsertRepository.indexName(search.v1.EntityType.ARTIST))
@@ -144,6 +263,7 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
                 case PLAYLIST -> {
                     var p = entity.getPlaylist();
                     var r = upsertRepository.upsertPlaylist(p);
+                    facetCache.onIndexed(entity, r.result() == Result.Created);
                     resp.setType(search.v1.EntityType.PLAYLIST)
                             .setId(p.getId())
                             .setIndex(upsertRepository.indexName(search.v1.EntityType.PLAYLIST))
@@ -151,6 +271,9 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
                 }
                 default -> resp.setOk(false).setMessage("unsupported payload");
             }
+            if (resp.getOk()) {
+                written = List.of(entity);
+            }
 
             responseObserver.onNext(resp.build());
             responseObserver.onCompleted();
@@ -163,6 +286,7 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
                     .build());
             responseObserver.onCompleted();
         }
+        updateHotTier(written);
     }
     @Override
     public void bulkUpsert(search.v1.BulkUpsertRequest request,
@@ -179,10 +303,12 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
             return;
         }
 
+        var written = new java.util.ArrayList<search.v1.Entity>(total);
         try {
             var docs = new java.util.ArrayList<java.util.Map<String, Object>>(total);
             var types = new java.util.ArrayList<search.v1.EntityType>(total);
             var ids = new java.util.ArrayList<String>(total);
+            var indexed = new java.util.ArrayList<search.v1.Entity>(total);
 
             var errors = new java.util.ArrayList<search.v1.BulkError>();
 
@@ -203,6 +329,7 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
 
                         types.add(search.v1.EntityType.TRACK);
                         ids.add(t.getId());
+                        indexed.add(e);
                     }
                     case ARTIST -> {
                         var a = e.getArtist();
@@ -216,6 +343,7 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
                         docs.add(ProtoMap.toMap(a));
                         types.add(search.v1.EntityType.ARTIST);
                         ids.add(a.getId());
+                        indexed.add(e);
                     }
                     case PLAYLIST -> {
                         var p = e.getPlaylist();
@@ -229,6 +357,7 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
                         docs.add(ProtoMap.toMap(p));
                         types.add(search.v1.EntityType.PLAYLIST);
                         ids.add(p.getId());
+                        indexed.add(e);
                     }
                     default -> errors.add(search.v1.BulkError.newBuilder()
                             .setItemIndex(i).setType(search.v1.EntityType.ENTITY_TYPE_UNSPECIFIED).setId("")
@@ -240,6 +369,16 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
             // bulk в ES
             var bulkResp = upsertRepository.bulkUpsert(docs, types, ids);
 
+            // items идут в порядке операций, т.е. параллельно indexed
+            var items = bulkResp.items();
+            for (int i = 0; i < items.size() && i < indexed.size(); i++) {
+                var item = items.get(i);
+                if (item.error() == null) {
+                    facetCache.onIndexed(indexed.get(i), "created".equals(item.result()));
+                    written.add(indexed.get(i));
+                }
+            }
+
             int failed = 0;
 
             int success = docs.size() - failed;
@@ -264,6 +403,17 @@ public class GrpcSearchService extends SearchServiceGrpc.SearchServiceImplBase {
                     .build());
             responseObserver.onCompleted();
         }
+        updateHotTier(written);
+    }
+
+    // hot tier обновляется уже после ответа: его сбой не должен превращать успешную запись в ошибку
+    private void updateHotTier(List<search.v1.Entity> written) {
+        if (written.isEmpty()) return;
+        try {
+            hotIndex.onIndexed(written);
+        } catch (Exception e) {
+            log.warn("hot tier update failed: {}", e.getMessage());
+        }
     }
 
 }
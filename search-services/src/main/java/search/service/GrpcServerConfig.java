@@ -0,0 +1,39 @@
+package search.service;
+
+import net.devh.boot.grpc.server.serverfactory.GrpcServerConfigurer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * search.grpc.executor=virtual: каждый gRPC-вызов выполняется на своём виртуальном потоке,
+ * блокирующий код EsSearchRepository / EsUpsertRepository остаётся как есть.
+ * По умолчанию (platform) используется стандартный cached pool gRPC.
+ * <p>
+ * Против pinning'а: в обработчиках нет блокирующего I/O внутри synchronized
+ * (synchronized остаётся только в чисто CPU-секциях, например TermCounter).
+ * Это проверяет VirtualThreadPinningTest: обработчики гоняются на виртуальных потоках
+ * с блокирующими заглушками ES, и тест падает на событиях JFR jdk.VirtualThreadPinned.
+ */
+@Configuration
+@ConditionalOnProperty(name = "search.grpc.executor", havingValue = "virtual")
+public class GrpcServerConfig implements DisposableBean {
+
+    // не бин: иначе Spring Boot сочтёт его общим Executor'ом приложения
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("grpc-vt-", 0).factory());
+
+    @Bean
+    public GrpcServerConfigurer virtualThreadServerConfigurer() {
+        return serverBuilder -> serverBuilder.executor(executor);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
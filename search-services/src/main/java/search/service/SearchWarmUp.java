@@ -0,0 +1,192 @@
+package search.service;
+
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.protobuf.services.HealthStatusManager;
+import net.devh.boot.grpc.client.inject.GrpcClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import search.v1.EntityType;
+import search.v1.SearchRequest;
+import search.v1.SearchServiceGrpc;
+import search.v1.Track;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Прогрев после старта: прогоняет выборку запросов из query-лога через настоящий gRPC-путь
+ * (netty, protobuf, GrpcSearchService, ES-клиент, кэши ES). Пока прогрев идёт, health-сервис
+ * отдаёт NOT_SERVING, поэтому при rolling deploy трафик приходит уже на прогретый инстанс.
+ * <p>
+ * Query-лог - файл в формате клиента {@code batch}: строка {@code query[\tsize[\tTYPES]]}.
+ */
+@Component
+public class SearchWarmUp {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchWarmUp.class);
+
+    private static final long CALL_DEADLINE_MS = 5_000;
+
+    private final HealthStatusManager health;
+    private final boolean enabled;
+    private final String queryFile;
+    private final int sampleSize;
+    private final int maxRequests;
+    private final int concurrency;
+    private final long maxDurationMs;
+
+    @GrpcClient("local-search")
+    private SearchServiceGrpc.SearchServiceBlockingStub stub;
+
+    public SearchWarmUp(
+            HealthStatusManager health,
+            @Value("${search.warmup.enabled:false}") boolean enabled,
+            @Value("${search.warmup.query-file:}") String queryFile,
+            @Value("${search.warmup.sample-size:500}") int sampleSize,
+            @Value("${search.warmup.max-requests:2000}") int maxRequests,
+            @Value("${search.warmup.concurrency:8}") int concurrency,
+            @Value("${search.warmup.max-duration-ms:60000}") long maxDurationMs
+    ) {
+        this.health = health;
+        this.enabled = enabled;
+        this.queryFile = queryFile;
+        this.sampleSize = sampleSize;
+        this.maxRequests = maxRequests;
+        this.concurrency = Math.max(1, concurrency);
+        this.maxDurationMs = maxDurationMs;
+
+        // до старта gRPC-сервера: снаружи инстанс не готов, пока не прогрет
+        if (enabled) {
+            setStatus(ServingStatus.NOT_SERVING);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void onReady() {
+        if (!enabled) return;
+
+        Thread t = new Thread(this::runAndMarkServing, "search-warmup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void runAndMarkServing() {
+        try {
+            warmUp();
+        } catch (Exception e) {
+            log.warn("warm-up failed: {}", e.getMessage());
+        } finally {
+            setStatus(ServingStatus.SERVING);
+        }
+    }
+
+    private void warmUp() throws Exception {
+        List<SearchRequest> sample = loadSample();
+        if (sample.isEmpty()) {
+            log.info("warm-up skipped: no queries in '{}'", queryFile);
+            return;
+        }
+
+        // ProtoMap (JsonFormat + Jackson) используется только на записи, греем его без обращения к ES
+        for (int i = 0; i < 1_000; i++) {
+            ProtoMap.toMap(Track.newBuilder().setId("warmup-" + i).setTitle("warmup").addTags("warmup").build());
+        }
+
+        long startMs = System.currentTimeMillis();
+        long deadlineMs = startMs + maxDurationMs;
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "search-warmup-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (int w = 0; w < concurrency; w++) {
+                pool.execute(() -> {
+                    int n;
+                    while ((n = next.getAndIncrement()) < maxRequests && System.currentTimeMillis() < deadlineMs) {
+                        sent.incrementAndGet();
+                        try {
+                            stub.withDeadlineAfter(CALL_DEADLINE_MS, TimeUnit.MILLISECONDS)
+                                    .search(sample.get(n % sample.size()));
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(maxDurationMs + CALL_DEADLINE_MS, TimeUnit.MILLISECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        log.info("warm-up done: requests={} errors={} took_ms={}",
+                sent.get(), errors.get(), System.currentTimeMillis() - startMs);
+    }
+
+    private List<SearchRequest> loadSample() throws IOException {
+        if (queryFile.isBlank() || !Files.isReadable(Path.of(queryFile))) {
+            return List.of();
+        }
+
+        List<SearchRequest> all = new ArrayList<>();
+        for (String line : Files.readAllLines(Path.of(queryFile), StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            SearchRequest req = parseLine(line);
+            if (!req.getQuery().isEmpty()) {
+                all.add(req);
+            }
+        }
+
+        Collections.shuffle(all);
+        return all.size() > sampleSize ? all.subList(0, sampleSize) : all;
+    }
+
+    private static SearchRequest parseLine(String line) {
+        String[] parts = line.split("\t");
+        SearchRequest.Builder req = SearchRequest.newBuilder().setQuery(parts[0].trim());
+
+        if (parts.length > 1) {
+            try {
+                req.setSize(Integer.parseInt(parts[1].trim()));
+            } catch (NumberFormatException ignored) {
+                // size по умолчанию
+            }
+        }
+        if (parts.length > 2) {
+            for (String t : parts[2].split(",")) {
+                switch (t.trim().toUpperCase(Locale.ROOT)) {
+                    case "TRACK" -> req.addTypes(EntityType.TRACK);
+                    case "ARTIST" -> req.addTypes(EntityType.ARTIST);
+                    case "PLAYLIST" -> req.addTypes(EntityType.PLAYLIST);
+                    default -> {
+                    }
+                }
+            }
+        }
+        return req.build();
+    }
+
+    private void setStatus(ServingStatus status) {
+        health.setStatus(HealthStatusManager.SERVICE_NAME_ALL_SERVICES, status);
+        health.setStatus(SearchServiceGrpc.SERVICE_NAME, status);
+    }
+}
@@ -0,0 +1,114 @@
+package search.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import search.service.es.EsSearchRepository;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slow-query лог: запросы дольше threshold-ms пишутся одной JSON-строкой в логгер {@code search.slowlog}
+ * (query, types, size, wall time, gRPC-статус и ошибка, took / shards и тело query по каждому типу).
+ * Неудачные запросы (таймауты, ошибки ES) тоже пишутся - с теми типами, что успели ответить.
+ * Для доли profile-sample-rate из них тот же запрос в фоне повторяется с {@code profile: true},
+ * результат уходит в {@code search.slowlog.profile}. Оба логгера пишут в rolling-файл
+ * search.slowlog.file (см. logback-spring.xml). Быстрые запросы ничего не стоят, кроме сравнения.
+ */
+@Component
+public class SlowQueryLog implements DisposableBean {
+
+    private static final Logger slowLog = LoggerFactory.getLogger("search.slowlog");
+    private static final Logger profileLog = LoggerFactory.getLogger("search.slowlog.profile");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final EsSearchRepository es;
+    private final long thresholdMs;
+    private final double profileSampleRate;
+
+    // один фоновый поток, при переполнении очереди profile просто не снимается
+    private final ThreadPoolExecutor profiler = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(16), r -> {
+        Thread t = new Thread(r, "slowlog-profiler");
+        t.setDaemon(true);
+        return t;
+    }, new ThreadPoolExecutor.DiscardPolicy());
+
+    public SlowQueryLog(
+            EsSearchRepository es,
+            @Value("${search.slowlog.threshold-ms:500}") long thresholdMs,
+            @Value("${search.slowlog.profile-sample-rate:0.1}") double profileSampleRate
+    ) {
+        this.es = es;
+        this.thresholdMs = thresholdMs;
+        this.profileSampleRate = profileSampleRate;
+    }
+
+    public void record(String query, int size, EsSearchRepository.Filters filters,
+                       List<EsSearchRepository.TypeResults> perType, long wallMs,
+                       Status.Code status, String error) {
+        if (thresholdMs < 0 || wallMs < thresholdMs) return;
+
+        // вызывается после ответа клиенту: сбой лога не должен долетать до gRPC-обработчика
+        try {
+            ObjectNode node = MAPPER.createObjectNode();
+            node.put("query", query);
+            node.put("size", size);
+            node.set("filters", MAPPER.valueToTree(filters));
+            node.put("wallMs", wallMs);
+            node.put("status", status.name());
+            if (error != null) {
+                node.put("error", error);
+            }
+            var types = node.putArray("types");
+            for (EsSearchRepository.TypeResults r : perType) {
+                types.addObject()
+                        .put("type", r.type().name())
+                        .put("tookMs", r.tookMs())
+                        .put("hits", r.results().size())
+                        .put("shardsTotal", r.shardsTotal())
+                        .put("shardsFailed", r.shardsFailed())
+                        .put("body", es.queryJson(r.type(), query, filters));
+            }
+            slowLog.warn(node.toString());
+
+            if (ThreadLocalRandom.current().nextDouble() < profileSampleRate) {
+                for (EsSearchRepository.TypeResults r : perType) {
+                    profiler.execute(() -> captureProfile(r.type(), query, size, filters));
+                }
+            }
+        } catch (Exception e) {
+            slowLog.debug("slow-query record failed: {}", e.getMessage());
+        }
+    }
+
+    private void captureProfile(EsSearchRepository.RawResult.Type type, String query, int size,
+                                EsSearchRepository.Filters filters) {
+        try {
+            String profile = es.profile(type, query, size, filters);
+
+            ObjectNode node = MAPPER.createObjectNode();
+            node.put("query", query);
+            node.put("type", type.name());
+            node.put("size", size);
+            node.set("profile", MAPPER.readTree(profile));
+            profileLog.info(node.toString());
+        } catch (Exception e) {
+            profileLog.warn("profile capture failed for '{}' ({}): {}", query, type, e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        profiler.shutdownNow();
+    }
+}
@@ -0,0 +1,260 @@
+package search.service.es;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import org.apache.http.HttpHost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.nio.DefaultNHttpClientConnection;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.AbstractIODispatch;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.NHttpClientEventHandler;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.protocol.HttpAsyncRequestExecutor;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.nio.reactor.IOSession;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Транспорт ES для EsSearchRepository и EsUpsertRepository: один пул соединений и один I/O reactor
+ * на оба RestClient'а, так что max-conn-total / max-conn-per-route — общие лимиты сервиса.
+ * <p>
+ * elasticsearch.url - один или несколько хостов через запятую; RestClient сам ходит по ним
+ * round-robin и выводит упавший узел из ротации с экспоненциальным backoff'ом.
+ * keep-alive-ms ограничивает, сколько простаивающее соединение может переиспользоваться,
+ * connection-ttl-ms - полное время жизни (0 = без ограничения). Раз в eviction-interval-ms
+ * из пула закрываются просроченные соединения и простаивающие дольше idle-timeout-ms,
+ * чтобы полузакрытые сокеты не висели в пуле до следующей выдачи.
+ * <p>
+ * RestClient умеет сжимать только все запросы разом (и тогда просит gzip-ответы), поэтому для _bulk
+ * есть отдельный клиент с bulk-compression-enabled; основной (поиск, одиночные upsert'ы) без сжатия.
+ * Пул у клиентов shared: они его не запускают и не закрывают, reactor крутится здесь же,
+ * а пул закрывается в {@link #destroy()}.
+ */
+@Configuration
+public class EsClientConfig implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(EsClientConfig.class);
+
+    private static final long FAILURE_LOG_INTERVAL_MS = 30_000;
+
+    private final HttpHost[] hosts;
+    private final int connectTimeoutMs;
+    private final int socketTimeoutMs;
+    private final int maxConnTotal;
+    private final int maxConnPerRoute;
+    private final long keepAliveMs;
+    private final long connectionTtlMs;
+    private final long idleTimeoutMs;
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+
+    // общий для обоих клиентов: узел, упавший для поиска, падает и для bulk
+    private final Map<HttpHost, Long> lastFailureWarnMs = new ConcurrentHashMap<>();
+
+    public EsClientConfig(
+            @Value("${elasticsearch.url}") String[] urls,
+            @Value("${elasticsearch.connect-timeout-ms:2000}") int connectTimeoutMs,
+            @Value("${elasticsearch.socket-timeout-ms:5000}") int socketTimeoutMs,
+            @Value("${elasticsearch.max-conn-total:256}") int maxConnTotal,
+            @Value("${elasticsearch.max-conn-per-route:128}") int maxConnPerRoute,
+            @Value("${elasticsearch.keep-alive-ms:30000}") long keepAliveMs,
+            @Value("${elasticsearch.connection-ttl-ms:0}") long connectionTtlMs,
+            @Value("${elasticsearch.idle-timeout-ms:30000}") long idleTimeoutMs
+    ) {
+        this.hosts = Arrays.stream(urls)
+                .map(String::trim)
+                .filter(u -> !u.isEmpty())
+                .map(HttpHost::create)
+                .toArray(HttpHost[]::new);
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.socketTimeoutMs = socketTimeoutMs;
+        this.maxConnTotal = maxConnTotal;
+        this.maxConnPerRoute = maxConnPerRoute;
+        this.keepAliveMs = keepAliveMs;
+        this.connectionTtlMs = connectionTtlMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.connectionManager = connectionManager();
+    }
+
+    @Bean
+    @Primary
+    public RestClient esRestClient() {
+        return buildRestClient(false);
+    }
+
+    @Bean
+    public RestClient esBulkRestClient(@Value("${elasticsearch.bulk-compression-enabled:true}") boolean compression) {
+        return buildRestClient(compression);
+    }
+
+    @Bean
+    @Primary
+    public ElasticsearchTransport elasticsearchTransport(RestClient esRestClient) {
+        return new RestClientTransport(esRestClient, new JacksonJsonpMapper());
+    }
+
+    @Bean
+    public ElasticsearchTransport bulkElasticsearchTransport(@Qualifier("esBulkRestClient") RestClient esBulkRestClient) {
+        return new RestClientTransport(esBulkRestClient, new JacksonJsonpMapper());
+    }
+
+    @Bean
+    @Primary
+    public ElasticsearchClient elasticsearchClient(ElasticsearchTransport elasticsearchTransport) {
+        return new ElasticsearchClient(elasticsearchTransport);
+    }
+
+    @Bean
+    public ElasticsearchClient bulkElasticsearchClient(
+            @Qualifier("bulkElasticsearchTransport") ElasticsearchTransport bulkElasticsearchTransport) {
+        return new ElasticsearchClient(bulkElasticsearchTransport);
+    }
+
+    @Scheduled(fixedDelayString = "${elasticsearch.eviction-interval-ms:10000}")
+    void evictIdleConnections() {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    // RestClient'ы (shared-пул) Spring закрывает раньше: они зависят от этой конфигурации
+    @Override
+    public void destroy() throws IOException {
+        connectionManager.shutdown();
+    }
+
+    // свой пул вместо встроенного в HttpAsyncClientBuilder: общий для обоих клиентов и доступный для eviction
+    private PoolingNHttpClientConnectionManager connectionManager() {
+        try {
+            DefaultConnectingIOReactor reactor = new DefaultConnectingIOReactor(
+                    IOReactorConfig.custom().setSoKeepAlive(true).build());
+            Registry<SchemeIOSessionStrategy> schemes = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                    .register("http", NoopIOSessionStrategy.INSTANCE)
+                    .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+                    .build();
+
+            PoolingNHttpClientConnectionManager cm = new PoolingNHttpClientConnectionManager(
+                    reactor, null, schemes, null, null,
+                    connectionTtlMs > 0 ? connectionTtlMs : -1, TimeUnit.MILLISECONDS);
+            cm.setMaxTotal(maxConnTotal);
+            cm.setDefaultMaxPerRoute(maxConnPerRoute);
+
+            // клиенты с shared-пулом reactor не запускают; execute() блокирует поток до shutdown()
+            Thread.ofPlatform().name("es-io-reactor").daemon().start(() -> {
+                try {
+                    cm.execute(new ClientIODispatch(new HttpAsyncRequestExecutor()));
+                } catch (Exception e) {
+                    log.error("elasticsearch I/O reactor terminated", e);
+                }
+            });
+            return cm;
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("cannot create Elasticsearch I/O reactor: " + e.getMessage(), e);
+        }
+    }
+
+    private RestClient buildRestClient(boolean compression) {
+        return RestClient.builder(hosts)
+                .setRequestConfigCallback(rcb -> rcb
+                        .setConnectTimeout(connectTimeoutMs)
+                        .setSocketTimeout(socketTimeoutMs)
+                )
+                .setHttpClientConfigCallback(hcb -> hcb
+                        .setConnectionManager(connectionManager)
+                        .setConnectionManagerShared(true)
+                        .setKeepAliveStrategy((response, context) -> keepAliveMs)
+                )
+                .setCompressionEnabled(compression)
+                .setFailureListener(new RestClient.FailureListener() {
+                    // при единственном узле RestClient пробует его на каждом запросе: warn не чаще раза в 30 с
+                    @Override
+                    public void onFailure(Node node) {
+                        long now = System.currentTimeMillis();
+                        Long prev = lastFailureWarnMs.get(node.getHost());
+                        if (prev == null || now - prev >= FAILURE_LOG_INTERVAL_MS) {
+                            lastFailureWarnMs.put(node.getHost(), now);
+                            log.warn("elasticsearch node {} failed, backing off", node.getHost());
+                        }
+                    }
+                })
+                .build();
+    }
+
+    // то же, что внутренний InternalIODispatch httpasyncclient: соединения создаёт пул, события идут в executor
+    private static final class ClientIODispatch extends AbstractIODispatch<DefaultNHttpClientConnection> {
+
+        private final NHttpClientEventHandler handler;
+
+        ClientIODispatch(NHttpClientEventHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        protected DefaultNHttpClientConnection createConnection(IOSession session) {
+            session.close();
+            throw new CancelledKeyException();
+        }
+
+        @Override
+        protected void onConnected(DefaultNHttpClientConnection conn) {
+            Object attachment = conn.getContext().getAttribute(IOSession.ATTACHMENT_KEY);
+            try {
+                handler.connected(conn, attachment);
+            } catch (Exception ex) {
+                handler.exception(conn, ex);
+            }
+        }
+
+        @Override
+        protected void onClosed(DefaultNHttpClientConnection conn) {
+            handler.closed(conn);
+        }
+
+        @Override
+        protected void onException(DefaultNHttpClientConnection conn, IOException ex) {
+            handler.exception(conn, ex);
+        }
+
+        @Override
+        protected void onInputReady(DefaultNHttpClientConnection conn) {
+            conn.consumeInput(handler);
+        }
+
+        @Override
+        protected void onOutputReady(DefaultNHttpClientConnection conn) {
+            conn.produceOutput(handler);
+        }
+
+        @Override
+        protected void onTimeout(DefaultNHttpClientConnection conn) {
+            try {
+                handler.timeout(conn);
+            } catch (Exception ex) {
+                handler.exception(conn, ex);
+            }
+        }
+    }
+}
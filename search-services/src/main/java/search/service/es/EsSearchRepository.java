@@ -1,15 +1,15 @@
 package search.service.es;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.aggregations.HistogramBucket;
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.json.JsonData;
-import co.elastic.clients.transport.ElasticsearchTransport;
-import co.elastic.clients.transport.rest_client.RestClientTransport;
-import co.elastic.clients.json.jackson.JacksonJsonpMapper;
-import org.apache.http.HttpHost;
-import org.elasticsearch.client.RestClient;
-import org.springframework.beans.factory.annotation.Value;
+import co.elastic.clients.json.JsonpUtils;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
@@ -19,71 +19,179 @@ import java.util.stream.Collectors;
 @Component
 public class EsSearchRepository {
 
+    // строковые поля индексируются dynamic mapping'ом как text + keyword-подполе
+    public static final String GENRE_FIELD = "genre.keyword";
+    public static final String TAGS_FIELD = "tags.keyword";
+    public static final String COUNTRY_FIELD = "country.keyword";
+
+    private static final List<String> TRACK_FIELDS = List.of("title^3", "artistName^2", "albumTitle");
+    private static final List<String> ARTIST_FIELDS = List.of("name^3", "aliases");
+    private static final List<String> PLAYLIST_FIELDS = List.of("title^3", "description", "ownerName");
+
+    private static final String AGG_NAME = "facet";
+
     private final ElasticsearchClient client;
 
-    public EsSearchRepository(
-            @Value("${elasticsearch.url}") String esUrl,
-            @Value("${elasticsearch.connect-timeout-ms:2000}") int connectTimeoutMs,
-            @Value("${elasticsearch.socket-timeout-ms:5000}") int socketTimeoutMs
-    ) {
-        // RestClient builder with timeouts
-        RestClient restClient = RestClient.builder(HttpHost.create(esUrl))
-                .setRequestConfigCallback(rcb -> rcb
-                        .setConnectTimeout(connectTimeoutMs)
-                        .setSocketTimeout(socketTimeoutMs)
-                )
-                .build();
+    public EsSearchRepository(ElasticsearchClient client) {
+        this.client = client;
+    }
+
+    public TypeResults searchTracks(String query, int size, Filters filters) throws IOException {
+        return search(RawResult.Type.TRACK, query, size, filters);
+    }
 
-        ElasticsearchTransport transport = new RestClientTransport(restClient, new JacksonJsonpMapper());
-        this.client = new ElasticsearchClient(transport);
+    public TypeResults searchArtists(String query, int size, Filters filters) throws IOException {
+        return search(RawResult.Type.ARTIST, query, size, filters);
     }
 
-    public List<RawResult> searchTracks(String query, int size) throws IOException {
+    public TypeResults searchPlaylists(String query, int size, Filters filters) throws IOException {
+        return search(RawResult.Type.PLAYLIST, query, size, filters);
+    }
+
+    private TypeResults search(RawResult.Type type, String query, int size, Filters filters) throws IOException {
         SearchResponse<JsonData> resp = client.search(s -> s
-                        .index(EsIndex.TRACKS)
+                        .index(index(type))
                         .size(size)
-                        .query(q -> q
-                                .multiMatch(mm -> mm
-                                        .query(query)
-                                        .fields("title^3", "artistName^2", "albumTitle")
-                                )
-                        ),
+                        .query(buildQuery(query, filters, fields(type))),
                 JsonData.class
         );
 
-        return toRawResults(resp, RawResult.Type.TRACK);
+        return new TypeResults(type, toRawResults(resp, type), resp.took(),
+                resp.shards().total().intValue(), resp.shards().failed().intValue());
     }
 
-    public List<RawResult> searchArtists(String query, int size) throws IOException {
-        SearchResponse<JsonData> resp = client.search(s -> s
-                        .index(EsIndex.ARTISTS)
+    // тот же запрос с profile: true; возвращает profile как JSON
+    public String profile(RawResult.Type type, String query, int size, Filters filters) throws IOException {
+        SearchResponse<Void> resp = client.search(s -> s
+                        .index(index(type))
                         .size(size)
-                        .query(q -> q
-                                .multiMatch(mm -> mm
-                                        .query(query)
-                                        .fields("name^3", "aliases")
-                                )
-                        ),
-                JsonData.class
+                        .source(src -> src.fetch(false))
+                        .profile(true)
+                        .query(buildQuery(query, filters, fields(type))),
+                Void.class
+        );
+
+        return resp.profile() == null ? "{}" : JsonpUtils.toJsonString(resp.profile(), client._jsonpMapper());
+    }
+
+    // тело query, которое уходит в ES (для slow-query лога)
+    public String queryJson(RawResult.Type type, String query, Filters filters) {
+        return JsonpUtils.toJsonString(buildQuery(query, filters, fields(type)), client._jsonpMapper());
+    }
+
+    private static String index(RawResult.Type type) {
+        return switch (type) {
+            case TRACK -> EsIndex.TRACKS;
+            case ARTIST -> EsIndex.ARTISTS;
+            case PLAYLIST -> EsIndex.PLAYLISTS;
+        };
+    }
+
+    // поля multiMatch с бустами
+    public static List<String> fields(RawResult.Type type) {
+        return switch (type) {
+            case TRACK -> TRACK_FIELDS;
+            case ARTIST -> ARTIST_FIELDS;
+            case PLAYLIST -> PLAYLIST_FIELDS;
+        };
+    }
+
+    // multiMatch остаётся единственным scoring-условием, фильтры уходят в bool.filter:
+    // ES их не скорит и кэширует как bitset'ы
+    private static Query buildQuery(String query, Filters filters, List<String> fields) {
+        Query text = Query.of(q -> q
+                .multiMatch(mm -> mm
+                        .query(query)
+                        .fields(fields)
+                )
+        );
+
+        List<Query> clauses = filterClauses(filters);
+        if (clauses.isEmpty()) {
+            return text;
+        }
+        return Query.of(q -> q.bool(b -> b.must(text).filter(clauses)));
+    }
+
+    private static List<Query> filterClauses(Filters f) {
+        if (f == null) return List.of();
+
+        List<Query> out = new ArrayList<>();
+        if (!f.genre().isBlank()) {
+            out.add(Query.of(q -> q.term(t -> t.field(GENRE_FIELD).value(f.genre()))));
+        }
+        if (!f.tags().isEmpty()) {
+            List<FieldValue> values = f.tags().stream().map(FieldValue::of).toList();
+            out.add(Query.of(q -> q.terms(t -> t.field(TAGS_FIELD).terms(tv -> tv.value(values)))));
+        }
+        if (f.yearFrom() > 0 || f.yearTo() > 0) {
+            out.add(Query.of(q -> q.range(r -> {
+                r.field("year");
+                if (f.yearFrom() > 0) r.gte(JsonData.of(f.yearFrom()));
+                if (f.yearTo() > 0) r.lte(JsonData.of(f.yearTo()));
+                return r;
+            })));
+        }
+        if (f.minPopularity() > 0) {
+            out.add(Query.of(q -> q.range(r -> r.field("popularity").gte(JsonData.of(f.minPopularity())))));
+        }
+        if (!f.country().isBlank()) {
+            out.add(Query.of(q -> q.term(t -> t.field(COUNTRY_FIELD).value(f.country()))));
+        }
+        return out;
+    }
+
+    // terms-агрегация по keyword-полю: term -> doc count (top maxTerms)
+    public Map<String, Long> termCounts(String index, String field, int maxTerms) throws IOException {
+        SearchResponse<Void> resp = client.search(s -> s
+                        .index(index)
+                        .size(0)
+                        .aggregations(AGG_NAME, a -> a.terms(t -> t.field(field).size(maxTerms))),
+                Void.class
         );
 
-        return toRawResults(resp, RawResult.Type.ARTIST);
+        Map<String, Long> out = new LinkedHashMap<>();
+        for (StringTermsBucket b : resp.aggregations().get(AGG_NAME).sterms().buckets().array()) {
+            out.put(b.key().stringValue(), b.docCount());
+        }
+        return out;
+    }
+
+    // histogram по году с шагом 10: decade (1990, 2000, ...) -> doc count; год 0 = не задан
+    public Map<Integer, Long> decadeCounts(String index) throws IOException {
+        SearchResponse<Void> resp = client.search(s -> s
+                        .index(index)
+                        .size(0)
+                        .aggregations(AGG_NAME, a -> a.histogram(h -> h.field("year").interval(10.0).minDocCount(1))),
+                Void.class
+        );
+
+        Map<Integer, Long> out = new LinkedHashMap<>();
+        for (HistogramBucket b : resp.aggregations().get(AGG_NAME).histogram().buckets().array()) {
+            int decade = (int) b.key();
+            if (decade > 0) {
+                out.put(decade, b.docCount());
+            }
+        }
+        return out;
     }
 
-    public List<RawResult> searchPlaylists(String query, int size) throws IOException {
+    // top-n документов типа по popularity (source как Map, _id подставляется в "id", если его нет)
+    public List<Map<String, Object>> topByPopularity(RawResult.Type type, int n) throws IOException {
         SearchResponse<JsonData> resp = client.search(s -> s
-                        .index(EsIndex.PLAYLISTS)
-                        .size(size)
-                        .query(q -> q
-                                .multiMatch(mm -> mm
-                                        .query(query)
-                                        .fields("title^3", "description", "ownerName")
-                                )
-                        ),
+                        .index(index(type))
+                        .size(n)
+                        .sort(so -> so.field(f -> f.field("popularity").order(SortOrder.Desc))),
                 JsonData.class
         );
 
-        return toRawResults(resp, RawResult.Type.PLAYLIST);
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Hit<JsonData> hit : resp.hits().hits()) {
+            Map<String, Object> src = new HashMap<>(safeToMap(hit.source()));
+            src.putIfAbsent("id", hit.id());
+            out.add(src);
+        }
+        return out;
     }
 
     private static List<RawResult> toRawResults(SearchResponse<JsonData> resp, RawResult.Type type) {
@@ -97,9 +205,15 @@ public class EsSearchRepository {
 
     private static RawResult mapHit(Hit<JsonData> hit, RawResult.Type type) {
         Map<String, Object> src = safeToMap(hit.source());
+        float score = hit.score() == null ? 0.0f : hit.score().floatValue();
+        return toRawResult(type, hit.id(), src, score);
+    }
+
+    // source документа -> RawResult; fallbackId - _id хита, если в source нет id
+    public static RawResult toRawResult(RawResult.Type type, String fallbackId, Map<String, Object> src, float score) {
         String id = valueAsString(src.get("id"));
         if (id == null || id.isBlank()) {
-            id = hit.id(); // fallback
+            id = fallbackId; // fallback
         }
 
         String title;
@@ -123,8 +237,7 @@ public class EsSearchRepository {
             }
         }
 
-        float score = hit.score() == null ? 0.0f : hit.score().floatValue();
-        return new RawResult(type, id, defaultString(title), defaultString(subtitle), score);
+        return new RawResult(type, defaultString(id), defaultString(title), defaultString(subtitle), score);
     }
 
     @SuppressWarnings("unchecked")
@@ -145,6 +258,34 @@ public class EsSearchRepository {
         return s == null ? "" : s;
     }
 
+    // Структурные фильтры поиска (не gRPC); пустая строка / 0 = фильтр не задан
+    public record Filters(String genre, List<String> tags, int yearFrom, int yearTo,
+                          int minPopularity, String country) {
+
+        public static final Filters NONE = new Filters("", List.of(), 0, 0, 0, "");
+
+        public Filters {
+            genre = defaultString(genre);
+            tags = tags == null ? List.of() : List.copyOf(tags);
+            country = defaultString(country);
+        }
+
+        // false, если задан фильтр по полю, которого у типа нет: такой запрос в ES можно не делать
+        public boolean appliesTo(RawResult.Type type) {
+            boolean trackOnly = !genre.isBlank() || yearFrom > 0 || yearTo > 0;
+            boolean artistOnly = !country.isBlank();
+            return switch (type) {
+                case TRACK -> !artistOnly;
+                case ARTIST -> !trackOnly;
+                case PLAYLIST -> !trackOnly && !artistOnly;
+            };
+        }
+    }
+
+    // Результаты одного типа + статистика ES-запроса
+    public record TypeResults(RawResult.Type type, List<RawResult> results, long tookMs,
+                              int shardsTotal, int shardsFailed) {}
+
     // Внутренняя модель результата из ES (не gRPC)
     public record RawResult(Type type, String id, String title, String subtitle, float score) {
         public enum Type {TRACK, ARTIST, PLAYLIST}
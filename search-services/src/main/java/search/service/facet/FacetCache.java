@@ -0,0 +1,291 @@
+package search.service.facet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import search.service.es.EsIndex;
+import search.service.es.EsSearchRepository;
+import search.v1.Entity;
+import search.v1.EntityType;
+import search.v1.Facet;
+import search.v1.FacetBucket;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Фасетные счётчики в памяти процесса: чтение ({@link #facets}) не ходит в ES.
+ * <p>
+ * Строится из агрегаций ES (первый тик планировщика после старта), дальше обновляется
+ * инкрементально из Upsert/BulkUpsert и периодически сверяется с ES целиком.
+ * Для каждого записанного документа помнятся term id его фасетов, поэтому "updated" вычитает
+ * прежние значения и прибавляет новые. Дельты, пришедшие во время пересборки, накатываются
+ * на новую карту. Внеплановая пересборка нужна только для "updated" документа, прежние
+ * значения которого неизвестны (записан до старта сервиса), и не чаще min-rebuild-interval-ms.
+ */
+@Component
+public class FacetCache {
+
+    private static final Logger log = LoggerFactory.getLogger(FacetCache.class);
+
+    private record Dim(EntityType type, String name, String index, String field) {}
+
+    private record Delta(long atMs, Dim dim, int termId, int delta) {}
+
+    private static final Dim TRACK_GENRE = new Dim(EntityType.TRACK, "genre", EsIndex.TRACKS, EsSearchRepository.GENRE_FIELD);
+    private static final Dim TRACK_TAG = new Dim(EntityType.TRACK, "tag", EsIndex.TRACKS, EsSearchRepository.TAGS_FIELD);
+    private static final Dim TRACK_DECADE = new Dim(EntityType.TRACK, "decade", EsIndex.TRACKS, "year");
+    private static final Dim ARTIST_TAG = new Dim(EntityType.ARTIST, "tag", EsIndex.ARTISTS, EsSearchRepository.TAGS_FIELD);
+    private static final Dim ARTIST_COUNTRY = new Dim(EntityType.ARTIST, "country", EsIndex.ARTISTS, EsSearchRepository.COUNTRY_FIELD);
+    private static final Dim PLAYLIST_TAG = new Dim(EntityType.PLAYLIST, "tag", EsIndex.PLAYLISTS, EsSearchRepository.TAGS_FIELD);
+
+    // index.refresh_interval по умолчанию 1 с: более свежие записи агрегация может не увидеть
+    private static final long ES_VISIBILITY_MARGIN_MS = 2_000;
+
+    private static final List<Dim> DIMS = List.of(
+            TRACK_GENRE, TRACK_TAG, TRACK_DECADE, ARTIST_TAG, ARTIST_COUNTRY, PLAYLIST_TAG
+    );
+
+    private static final Map<EntityType, List<Dim>> DIMS_BY_TYPE = new EnumMap<>(EntityType.class);
+
+    static {
+        for (Dim d : DIMS) {
+            DIMS_BY_TYPE.computeIfAbsent(d.type(), t -> new ArrayList<>()).add(d);
+        }
+    }
+
+    private final EsSearchRepository es;
+    private final int maxTerms;
+    private final long reconcileIntervalMs;
+    private final long minRebuildIntervalMs;
+
+    // id term'ов стабильны между пересборками
+    private final Map<Dim, TermDictionary> dicts = new LinkedHashMap<>();
+
+    private final Object lock = new Object();
+    // "TRACK/id" -> term id по фасетам типа (в порядке DIMS); под lock
+    private final Map<String, int[][]> docTerms = new HashMap<>();
+    // дельты последних ES_VISIBILITY_MARGIN_MS и всей идущей пересборки; под lock
+    private final Deque<Delta> recentDeltas = new ArrayDeque<>();
+    private long rebuildStartedMs; // под lock; 0 — пересборка не идёт
+
+    // true, если счётчики могут расходиться с ES (неизвестные прежние значения, сбой пересборки)
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile boolean built;
+    private volatile long lastReconcileMs;
+    private volatile boolean failing;
+    private volatile Map<Dim, TermCounter> counters;
+
+    public FacetCache(
+            EsSearchRepository es,
+            @Value("${search.facets.max-terms:1000}") int maxTerms,
+            @Value("${search.facets.reconcile-interval-ms:300000}") long reconcileIntervalMs,
+            @Value("${search.facets.min-rebuild-interval-ms:30000}") long minRebuildIntervalMs
+    ) {
+        this.es = es;
+        this.maxTerms = maxTerms;
+        this.reconcileIntervalMs = reconcileIntervalMs;
+        this.minRebuildIntervalMs = minRebuildIntervalMs;
+        for (Dim d : DIMS) {
+            dicts.put(d, new TermDictionary());
+        }
+        this.counters = emptyCounters();
+    }
+
+    // false, пока кэш ни разу не построен из ES: пустые buckets не отличить от настоящих нулей
+    public boolean ready() {
+        return built;
+    }
+
+    public List<Facet> facets(Set<EntityType> types, int size) {
+        Map<Dim, TermCounter> snapshot = counters;
+
+        List<Facet> out = new ArrayList<>();
+        for (Dim d : DIMS) {
+            if (!types.contains(d.type())) continue;
+
+            Facet.Builder f = Facet.newBuilder().setType(d.type()).setName(d.name());
+            for (TermCounter.Bucket b : snapshot.get(d).top(size)) {
+                f.addBuckets(FacetBucket.newBuilder().setValue(b.term()).setCount(b.count()));
+            }
+            out.add(f.build());
+        }
+        return out;
+    }
+
+    // вызывается после успешной записи сущности в ES
+    public void onIndexed(Entity entity, boolean created) {
+        EntityType type;
+        String id;
+        switch (entity.getPayloadCase()) {
+            case TRACK -> {
+                type = EntityType.TRACK;
+                id = entity.getTrack().getId();
+            }
+            case ARTIST -> {
+                type = EntityType.ARTIST;
+                id = entity.getArtist().getId();
+            }
+            case PLAYLIST -> {
+                type = EntityType.PLAYLIST;
+                id = entity.getPlaylist().getId();
+            }
+            default -> {
+                return;
+            }
+        }
+
+        List<Dim> dims = dims(type);
+        int[][] now = new int[dims.size()][];
+        for (int i = 0; i < dims.size(); i++) {
+            now[i] = termIds(dims.get(i), entity);
+        }
+
+        long atMs = System.currentTimeMillis();
+        synchronized (lock) {
+            int[][] old = docTerms.put(type + "/" + id, now);
+            if (old == null && !created) {
+                // документ был в ES до нас: что вычесть, неизвестно
+                dirty.set(true);
+            }
+
+            Map<Dim, TermCounter> c = counters;
+            for (int i = 0; i < dims.size(); i++) {
+                Dim d = dims.get(i);
+                int[] before = created || old == null ? new int[0] : old[i];
+                for (int termId : before) {
+                    if (!contains(now[i], termId)) apply(c, new Delta(atMs, d, termId, -1));
+                }
+                for (int termId : now[i]) {
+                    if (!contains(before, termId)) apply(c, new Delta(atMs, d, termId, 1));
+                }
+            }
+            pruneRecentDeltas();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${search.facets.check-interval-ms:5000}")
+    void reconcileIfNeeded() {
+        long sinceLast = System.currentTimeMillis() - lastReconcileMs;
+        boolean due = sinceLast >= reconcileIntervalMs;
+        boolean uncertain = dirty.get() && sinceLast >= minRebuildIntervalMs;
+        if (!built || due || uncertain) {
+            dirty.set(false);
+            reconcile();
+        }
+    }
+
+    // полная пересборка из ES; дельты, пришедшие за время сборки, накатываются поверх
+    public void reconcile() {
+        long startedMs = System.currentTimeMillis();
+        synchronized (lock) {
+            rebuildStartedMs = startedMs;
+        }
+        try {
+            Map<Dim, TermCounter> fresh = emptyCounters();
+            for (Dim d : DIMS) {
+                TermCounter tc = fresh.get(d);
+                if (d == TRACK_DECADE) {
+                    es.decadeCounts(d.index()).forEach((decade, n) -> tc.add(String.valueOf(decade), n));
+                } else {
+                    es.termCounts(d.index(), d.field(), maxTerms).forEach(tc::add);
+                }
+            }
+
+            synchronized (lock) {
+                // записи во время сборки и незадолго до неё: агрегации могли их ещё не увидеть
+                for (Delta delta : recentDeltas) {
+                    if (delta.atMs() >= startedMs - ES_VISIBILITY_MARGIN_MS) {
+                        fresh.get(delta.dim()).add(delta.termId(), delta.delta());
+                    }
+                }
+                counters = fresh;
+            }
+            built = true;
+            lastReconcileMs = System.currentTimeMillis();
+            if (failing) {
+                failing = false;
+                log.info("facet reconcile recovered");
+            }
+        } catch (Exception e) {
+            dirty.set(true);
+            // пока ES недоступен, повторяем по расписанию, но warn пишем один раз
+            if (!failing) {
+                failing = true;
+                log.warn("facet reconcile failed: {}", e.getMessage());
+            }
+        } finally {
+            synchronized (lock) {
+                rebuildStartedMs = 0;
+                pruneRecentDeltas();
+            }
+        }
+    }
+
+    // под lock
+    private void apply(Map<Dim, TermCounter> c, Delta delta) {
+        c.get(delta.dim()).add(delta.termId(), delta.delta());
+        recentDeltas.addLast(delta);
+    }
+
+    // под lock; пока идёт пересборка, держим всё, что может понадобиться для replay
+    private void pruneRecentDeltas() {
+        long now = System.currentTimeMillis();
+        long cutoff = (rebuildStartedMs > 0 ? Math.min(now, rebuildStartedMs) : now) - ES_VISIBILITY_MARGIN_MS;
+        while (!recentDeltas.isEmpty() && recentDeltas.peekFirst().atMs() < cutoff) {
+            recentDeltas.pollFirst();
+        }
+    }
+
+    // значения фасета документа так, как их считает агрегация ES (без повторов)
+    private int[] termIds(Dim d, Entity e) {
+        Set<String> values = new LinkedHashSet<>();
+        if (d == TRACK_GENRE) {
+            values.add(e.getTrack().getGenre());
+        } else if (d == TRACK_TAG) {
+            values.addAll(e.getTrack().getTagsList());
+        } else if (d == TRACK_DECADE) {
+            if (e.getTrack().getYear() > 0) values.add(String.valueOf(e.getTrack().getYear() / 10 * 10));
+        } else if (d == ARTIST_TAG) {
+            values.addAll(e.getArtist().getTagsList());
+        } else if (d == ARTIST_COUNTRY) {
+            values.add(e.getArtist().getCountry());
+        } else if (d == PLAYLIST_TAG) {
+            values.addAll(e.getPlaylist().getTagsList());
+        }
+        values.remove("");
+
+        TermDictionary dict = dicts.get(d);
+        return values.stream().mapToInt(dict::id).toArray();
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int x : ids) {
+            if (x == id) return true;
+        }
+        return false;
+    }
+
+    private static List<Dim> dims(EntityType type) {
+        return DIMS_BY_TYPE.getOrDefault(type, List.of());
+    }
+
+    private Map<Dim, TermCounter> emptyCounters() {
+        Map<Dim, TermCounter> m = new LinkedHashMap<>();
+        for (Dim d : DIMS) {
+            m.put(d, new TermCounter(dicts.get(d)));
+        }
+        return m;
+    }
+}
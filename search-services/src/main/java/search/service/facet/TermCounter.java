@@ -0,0 +1,48 @@
+package search.service.facet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Счётчики одного фасета: long[] по id term'а из общего {@link TermDictionary}.
+ * Term'ы никогда не удаляются (обнулённые просто не попадают в top).
+ */
+final class TermCounter {
+
+    private final TermDictionary dict;
+    private long[] counts = new long[16];
+
+    TermCounter(TermDictionary dict) {
+        this.dict = dict;
+    }
+
+    void add(String term, long delta) {
+        if (term == null || term.isEmpty()) return;
+        add(dict.id(term), delta);
+    }
+
+    synchronized void add(int id, long delta) {
+        if (id >= counts.length) {
+            long[] grown = new long[Math.max(counts.length * 2, id + 1)];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            counts = grown;
+        }
+        counts[id] = Math.max(0, counts[id] + delta);
+    }
+
+    // top-n по убыванию count, при равенстве - по term
+    synchronized List<Bucket> top(int n) {
+        List<Bucket> out = new ArrayList<>();
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0) {
+                out.add(new Bucket(dict.term(id), counts[id]));
+            }
+        }
+        out.sort((a, b) -> a.count() != b.count()
+                ? Long.compare(b.count(), a.count())
+                : a.term().compareTo(b.term()));
+        return out.size() > n ? new ArrayList<>(out.subList(0, n)) : out;
+    }
+
+    record Bucket(String term, long count) {}
+}
@@ -0,0 +1,30 @@
+package search.service.facet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Словарь term -> int id одного фасета. Живёт дольше счётчиков: id стабильны между reconcile,
+ * поэтому запомненные term id документов остаются валидными для новой карты счётчиков.
+ */
+final class TermDictionary {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> terms = new ArrayList<>();
+
+    synchronized int id(String term) {
+        Integer id = ids.get(term);
+        if (id == null) {
+            id = terms.size();
+            ids.put(term, id);
+            terms.add(term);
+        }
+        return id;
+    }
+
+    synchronized String term(int id) {
+        return terms.get(id);
+    }
+}
@@ -0,0 +1,434 @@
+package search.service.hot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import search.service.ProtoMap;
+import search.service.es.EsSearchRepository;
+import search.service.es.EsSearchRepository.RawResult;
+import search.v1.Entity;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+/**
+ * In-process tier поиска по самым популярным сущностям: top-N каждого типа по popularity
+ * в компактном инвертированном индексе (term -> int[] постингов doc/field) по тем же полям и бустам,
+ * что и multiMatch в {@link EsSearchRepository}.
+ * <p>
+ * Скоринг повторяет форму best_fields: по каждому полю boost * sum(idf) / sqrt(длина поля), берётся максимум.
+ * Ответ всегда целиком локальный или целиком из ES: шкалы score разные, смешивать их нельзя.
+ * <p>
+ * Локальный ответ (search.hot.local-answer) отдаётся, только если набрано ровно size хитов и каждый
+ * содержит все токены запроса в своём поле с наибольшим бустом (title / name). Документ вне top-N
+ * может обойти такой хит в ES лишь тем же полным совпадением в том же поле, а он менее популярен;
+ * это эвристика для head-запросов, остальное уходит в ES. Когда ES недоступен, локальные хиты
+ * отдаются без этого условия.
+ * <p>
+ * Набор документов грузится из ES (первый тик и далее раз в refresh-interval-ms) и обновляется
+ * из Upsert/BulkUpsert: записи копятся в очереди и применяются планировщиком раз в apply-interval-ms,
+ * вне потока запроса. Поиск идёт по неизменяемому снимку, который пересобирается один раз на пачку.
+ * Записи последних секунд помнятся и накатываются поверх выборки refresh: она могла их не увидеть.
+ */
+@Component
+public class HotEntityIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(HotEntityIndex.class);
+
+    private static final Pattern TOKEN_SPLIT = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int MAX_QUERY_TOKENS = 32;
+    private static final int FIELD_BITS = 3;
+    // запас на refresh_interval ES: запись, сделанная чуть раньше старта выборки, может в неё не попасть
+    private static final long WRITE_REPLAY_MARGIN_MS = 5000;
+
+    // min-heap по popularity: first() — кандидат на вытеснение; id разводит равные popularity
+    private static final Comparator<HotDoc> BY_POPULARITY =
+            Comparator.comparingInt(HotDoc::popularity).thenComparing(HotDoc::id);
+
+    private final EsSearchRepository es;
+    private final boolean enabled;
+    private final boolean localAnswer;
+    private final int topN;
+    private final long refreshIntervalMs;
+
+    // под lock, поиск их не трогает
+    private final Map<RawResult.Type, Tier> tiers = new EnumMap<>(RawResult.Type.class);
+    private final Object lock = new Object();
+
+    // применённые записи последних WRITE_REPLAY_MARGIN_MS (и всё время идущего refresh); под lock
+    private final Deque<Write> recentWrites = new ArrayDeque<>();
+    private long refreshStartedMs; // под lock; 0 — refresh не идёт
+
+    // записи из Upsert/BulkUpsert, ещё не применённые к снимку
+    private final Queue<Queued> pending = new ConcurrentLinkedQueue<>();
+
+    private volatile Snapshot snapshot = Snapshot.build(Map.of());
+    private volatile boolean loaded;
+    private volatile long lastRefreshMs;
+    private volatile boolean failing;
+
+    public HotEntityIndex(
+            EsSearchRepository es,
+            @Value("${search.hot.enabled:false}") boolean enabled,
+            @Value("${search.hot.local-answer:true}") boolean localAnswer,
+            @Value("${search.hot.top-n:5000}") int topN,
+            @Value("${search.hot.refresh-interval-ms:600000}") long refreshIntervalMs
+    ) {
+        this.es = es;
+        this.enabled = enabled;
+        this.localAnswer = localAnswer;
+        this.topN = topN;
+        this.refreshIntervalMs = refreshIntervalMs;
+        for (RawResult.Type t : RawResult.Type.values()) {
+            tiers.put(t, new Tier());
+        }
+    }
+
+    public boolean enabled() {
+        return enabled && loaded;
+    }
+
+    // можно ли отвечать из tier'а, не спрашивая ES (при confident-результате)
+    public boolean localAnswerEnabled() {
+        return enabled() && localAnswer;
+    }
+
+    public Result search(String query, Set<RawResult.Type> types, int size) {
+        return snapshot.search(tokenize(query), types, size);
+    }
+
+    // confident: набрано size хитов, и каждый совпал всеми токенами в поле с наибольшим бустом
+    public record Result(List<RawResult> results, boolean confident) {}
+
+    // вызывается после успешной записи в ES и ответа клиенту; только ставит в очередь
+    public void onIndexed(Collection<Entity> entities) {
+        if (!enabled || entities.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        entities.forEach(e -> pending.add(new Queued(now, e)));
+    }
+
+    @Scheduled(fixedDelayString = "${search.hot.apply-interval-ms:1000}")
+    void applyPending() {
+        if (pending.isEmpty()) return;
+
+        // конвертация и токенизация — вне lock
+        List<Write> batch = new ArrayList<>();
+        for (Queued q; (q = pending.poll()) != null; ) {
+            try {
+                HotDoc d = toHotDoc(q.entity());
+                if (d != null) batch.add(new Write(q.atMs(), d));
+            } catch (Exception ex) {
+                log.warn("hot tier: skip entity {}: {}", q.entity().getPayloadCase(), ex.getMessage());
+            }
+        }
+
+        synchronized (lock) {
+            boolean changed = false;
+            for (Write w : batch) {
+                changed |= tiers.get(w.doc().type()).offer(w.doc());
+                recentWrites.addLast(w);
+            }
+            pruneRecentWrites();
+            if (changed) {
+                snapshot = Snapshot.build(tiers);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${search.hot.check-interval-ms:5000}")
+    void refreshIfNeeded() {
+        if (!enabled) return;
+        if (!loaded || System.currentTimeMillis() - lastRefreshMs >= refreshIntervalMs) {
+            refresh();
+        }
+    }
+
+    public void refresh() {
+        long startedMs = System.currentTimeMillis();
+        synchronized (lock) {
+            refreshStartedMs = startedMs;
+        }
+        try {
+            Map<RawResult.Type, List<HotDoc>> fresh = new EnumMap<>(RawResult.Type.class);
+            for (RawResult.Type t : RawResult.Type.values()) {
+                List<HotDoc> list = new ArrayList<>();
+                for (Map<String, Object> src : es.topByPopularity(t, topN)) {
+                    HotDoc d = HotDoc.of(t, src);
+                    if (d != null) list.add(d);
+                }
+                fresh.put(t, list);
+            }
+
+            synchronized (lock) {
+                fresh.forEach((t, list) -> {
+                    Tier tier = tiers.get(t);
+                    tier.clear();
+                    list.forEach(tier::offer);
+                });
+                // записи во время выборки или незадолго до неё: в ES их могло ещё не быть видно
+                for (Write w : recentWrites) {
+                    if (w.atMs() >= startedMs - WRITE_REPLAY_MARGIN_MS) {
+                        tiers.get(w.doc().type()).offer(w.doc());
+                    }
+                }
+                snapshot = Snapshot.build(tiers);
+            }
+            loaded = true;
+            lastRefreshMs = System.currentTimeMillis();
+            if (failing) {
+                failing = false;
+                log.info("hot tier refresh recovered");
+            }
+        } catch (Exception e) {
+            if (!failing) {
+                failing = true;
+                log.warn("hot tier refresh failed: {}", e.getMessage());
+            }
+        } finally {
+            synchronized (lock) {
+                refreshStartedMs = 0;
+                pruneRecentWrites();
+            }
+        }
+    }
+
+    // под lock; пока идёт refresh, держим всё, что может понадобиться для replay
+    private void pruneRecentWrites() {
+        long now = System.currentTimeMillis();
+        long cutoff = (refreshStartedMs > 0 ? Math.min(now, refreshStartedMs) : now) - WRITE_REPLAY_MARGIN_MS;
+        while (!recentWrites.isEmpty() && recentWrites.peekFirst().atMs() < cutoff) {
+            recentWrites.pollFirst();
+        }
+    }
+
+    private record Queued(long atMs, Entity entity) {}
+
+    private record Write(long atMs, HotDoc doc) {}
+
+    private static HotDoc toHotDoc(Entity e) {
+        return switch (e.getPayloadCase()) {
+            case TRACK -> HotDoc.of(RawResult.Type.TRACK, ProtoMap.toMap(e.getTrack()));
+            case ARTIST -> HotDoc.of(RawResult.Type.ARTIST, ProtoMap.toMap(e.getArtist()));
+            case PLAYLIST -> HotDoc.of(RawResult.Type.PLAYLIST, ProtoMap.toMap(e.getPlaylist()));
+            default -> null;
+        };
+    }
+
+    // top-N одного типа; под lock
+    private final class Tier {
+        private final Map<String, HotDoc> byId = new HashMap<>();
+        private final TreeSet<HotDoc> byPopularity = new TreeSet<>(BY_POPULARITY);
+
+        // true, если набор документов изменился
+        boolean offer(HotDoc d) {
+            HotDoc old = byId.get(d.id());
+            if (old != null) {
+                byPopularity.remove(old);
+            } else if (byId.size() >= topN) {
+                // вытесняем наименее популярный, если новый популярнее
+                if (topN <= 0 || d.popularity() <= byPopularity.first().popularity()) return false;
+                byId.remove(byPopularity.pollFirst().id());
+            }
+            byId.put(d.id(), d);
+            byPopularity.add(d);
+            return true;
+        }
+
+        void clear() {
+            byId.clear();
+            byPopularity.clear();
+        }
+
+        Collection<HotDoc> docs() {
+            return byId.values();
+        }
+    }
+
+    // документ, уже разобранный по полям multiMatch: снимок собирается без повторной токенизации
+    private record HotDoc(RawResult.Type type, String id, int popularity, RawResult base,
+                          List<List<String>> fieldTokens, float[] fieldNorm, int topField) {
+
+        static HotDoc of(RawResult.Type type, Map<String, Object> src) {
+            String id = String.valueOf(src.get("id"));
+            if (id.isBlank() || "null".equals(id)) return null;
+
+            List<String> fields = EsSearchRepository.fields(type);
+            List<List<String>> tokens = new ArrayList<>(fields.size());
+            float[] norm = new float[fields.size()];
+            int topField = 0;
+            float topBoost = 0f;
+            for (int f = 0; f < fields.size(); f++) {
+                String[] nameAndBoost = fields.get(f).split("\\^");
+                float boost = nameAndBoost.length > 1 ? Float.parseFloat(nameAndBoost[1]) : 1f;
+                if (boost > topBoost) {
+                    topBoost = boost;
+                    topField = f;
+                }
+
+                List<String> ft = tokenize(fieldText(src.get(nameAndBoost[0])));
+                tokens.add(ft);
+                norm[f] = ft.isEmpty() ? 0f : boost / (float) Math.sqrt(ft.size());
+            }
+
+            int popularity = src.get("popularity") instanceof Number n ? n.intValue() : 0;
+            return new HotDoc(type, id, popularity, EsSearchRepository.toRawResult(type, id, src, 0f),
+                    tokens, norm, topField);
+        }
+
+        private static String fieldText(Object v) {
+            if (v == null) return "";
+            if (v instanceof Collection<?> c) {
+                StringBuilder sb = new StringBuilder();
+                c.forEach(x -> sb.append(x).append(' '));
+                return sb.toString();
+            }
+            return String.valueOf(v);
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) return List.of();
+
+        Set<String> out = new LinkedHashSet<>();
+        for (String t : TOKEN_SPLIT.split(text.toLowerCase(Locale.ROOT))) {
+            if (!t.isEmpty()) out.add(t);
+        }
+        return new ArrayList<>(out);
+    }
+
+    // неизменяемый снимок индекса
+    private static final class Snapshot {
+        private final RawResult[] base;       // doc ord -> RawResult со score 0
+        private final float[][] fieldNorm;    // doc ord -> field -> boost / sqrt(len), 0 если поля нет
+        private final int[] popularity;
+        private final byte[] topField;        // doc ord -> поле с наибольшим бустом
+        private final Map<String, int[]> postings; // term -> (docOrd << FIELD_BITS | field)
+
+        private Snapshot(RawResult[] base, float[][] fieldNorm, int[] popularity, byte[] topField,
+                         Map<String, int[]> postings) {
+            this.base = base;
+            this.fieldNorm = fieldNorm;
+            this.popularity = popularity;
+            this.topField = topField;
+            this.postings = postings;
+        }
+
+        static Snapshot build(Map<RawResult.Type, Tier> tiers) {
+            int n = 0;
+            for (Tier tier : tiers.values()) n += tier.docs().size();
+
+            RawResult[] base = new RawResult[n];
+            float[][] norms = new float[n][];
+            int[] pops = new int[n];
+            byte[] top = new byte[n];
+            // первый проход: df каждого term'а, чтобы сразу выделить int[] нужной длины
+            Map<String, int[]> df = new HashMap<>();
+
+            int ord = 0;
+            for (Tier tier : tiers.values()) {
+                for (HotDoc d : tier.docs()) {
+                    base[ord] = d.base();
+                    norms[ord] = d.fieldNorm();
+                    pops[ord] = d.popularity();
+                    top[ord] = (byte) d.topField();
+                    for (List<String> ft : d.fieldTokens()) {
+                        for (String t : ft) {
+                            df.computeIfAbsent(t, k -> new int[1])[0]++;
+                        }
+                    }
+                    ord++;
+                }
+            }
+
+            Map<String, int[]> postings = new HashMap<>(df.size() * 2);
+            df.forEach((t, c) -> {
+                postings.put(t, new int[c[0]]);
+                c[0] = 0; // дальше — позиция заполнения
+            });
+
+            ord = 0;
+            for (Tier tier : tiers.values()) {
+                for (HotDoc d : tier.docs()) {
+                    for (int f = 0; f < d.fieldTokens().size(); f++) {
+                        for (String t : d.fieldTokens().get(f)) {
+                            postings.get(t)[df.get(t)[0]++] = ord << FIELD_BITS | f;
+                        }
+                    }
+                    ord++;
+                }
+            }
+
+            return new Snapshot(base, norms, pops, top, postings);
+        }
+
+        Result search(List<String> tokens, Set<RawResult.Type> types, int size) {
+            if (tokens.isEmpty() || tokens.size() > MAX_QUERY_TOKENS || base.length == 0) {
+                return new Result(List.of(), false);
+            }
+
+            // doc ord -> накопленные idf по полям + маска токенов, совпавших в поле с наибольшим бустом
+            Map<Integer, float[]> fieldScores = new HashMap<>();
+            Map<Integer, Integer> topMasks = new HashMap<>();
+            for (int i = 0; i < tokens.size(); i++) {
+                int[] p = postings.get(tokens.get(i));
+                if (p == null) continue;
+
+                float idf = (float) Math.log(1 + (double) base.length / p.length);
+                int bit = 1 << i;
+                for (int e : p) {
+                    int ord = e >>> FIELD_BITS;
+                    if (!types.contains(base[ord].type())) continue;
+
+                    int field = e & ((1 << FIELD_BITS) - 1);
+                    float[] fs = fieldScores.computeIfAbsent(ord, k -> new float[fieldNorm[k].length]);
+                    fs[field] += idf;
+                    if (field == topField[ord]) {
+                        topMasks.merge(ord, bit, (a, b) -> a | b);
+                    }
+                }
+            }
+            int all = tokens.size() == 32 ? -1 : (1 << tokens.size()) - 1;
+
+            List<Hit> hits = new ArrayList<>(fieldScores.size());
+            fieldScores.forEach((ord, fs) -> {
+                float best = 0f;
+                for (int f = 0; f < fs.length; f++) {
+                    best = Math.max(best, fs[f] * fieldNorm[ord][f]);
+                }
+                hits.add(new Hit(ord, best));
+            });
+
+            hits.sort((a, b) -> a.score() != b.score()
+                    ? Float.compare(b.score(), a.score())
+                    : Integer.compare(popularity[b.ord()], popularity[a.ord()]));
+
+            List<RawResult> out = new ArrayList<>(Math.min(size, hits.size()));
+            boolean confident = hits.size() >= size;
+            for (int i = 0; i < hits.size() && i < size; i++) {
+                Hit h = hits.get(i);
+                confident &= topMasks.getOrDefault(h.ord(), 0) == all;
+                RawResult r = base[h.ord()];
+                out.add(new RawResult(r.type(), r.id(), r.title(), r.subtitle(), h.score()));
+            }
+            return new Result(out, confident);
+        }
+
+        private record Hit(int ord, float score) {}
+    }
+}
@@ -0,0 +1,159 @@
+package search.service;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import search.v1.SearchRequest;
+import search.v1.SearchResponse;
+import search.v1.SearchResult;
+import search.v1.SearchServiceGrpc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сравнение search.grpc.executor=platform и virtual без ES: обработчик блокируется на
+ * latencyMs (как на ответе ES), клиент держит inFlight одновременных вызовов.
+ * Печатает throughput, пиковое число потоков и прирост heap на один in-flight вызов
+ * (стеки платформенных потоков - native память, их отражает число потоков).
+ * <p>
+ * Запуск (не JUnit-тест):
+ * <pre>
+ * mvn -q test-compile
+ * java -cp target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     search.service.ExecutorModeBenchmark [inFlight=2000] [latencyMs=50] [durationSec=10]
+ * </pre>
+ */
+public final class ExecutorModeBenchmark {
+
+    private ExecutorModeBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        int inFlight = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int latencyMs = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int durationSec = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        System.out.printf("inFlight=%d latencyMs=%d durationSec=%d%n", inFlight, latencyMs, durationSec);
+        run(false, inFlight, latencyMs, durationSec);
+        run(true, inFlight, latencyMs, durationSec);
+    }
+
+    private static void run(boolean virtual, int inFlight, int latencyMs, int durationSec) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        ExecutorService executor = virtual ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        NettyServerBuilder sb = NettyServerBuilder.forPort(0).addService(new BlockingService(latencyMs));
+        if (executor != null) {
+            sb.executor(executor);
+        }
+        Server server = sb.build().start();
+        ManagedChannel channel = NettyChannelBuilder.forAddress("localhost", server.getPort())
+                .usePlaintext()
+                .directExecutor()
+                .build();
+
+        try {
+            SearchServiceGrpc.SearchServiceStub stub = SearchServiceGrpc.newStub(channel);
+            SearchRequest req = SearchRequest.newBuilder().setQuery("metallica").setSize(10).build();
+
+            // прогрев соединения и путей вызова
+            drive(stub, req, Math.min(inFlight, 64), 2_000, new Semaphore(Math.min(inFlight, 64)));
+
+            System.gc();
+            Thread.sleep(200);
+            long heapBefore = memory.getHeapMemoryUsage().getUsed();
+            int threadsBefore = threads.getThreadCount();
+
+            Semaphore permits = new Semaphore(inFlight);
+            long start = System.nanoTime();
+            long[] peak = new long[2];
+            Thread sampler = Thread.ofPlatform().daemon().start(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    peak[0] = Math.max(peak[0], memory.getHeapMemoryUsage().getUsed());
+                    peak[1] = Math.max(peak[1], threads.getThreadCount());
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            long completed = drive(stub, req, inFlight, durationSec * 1_000L, permits);
+            sampler.interrupt();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%-8s rps=%.0f peakThreads=%d (+%d) heapPerInFlightKb=%.1f%n",
+                    virtual ? "virtual" : "platform",
+                    completed / seconds,
+                    peak[1], peak[1] - threadsBefore,
+                    Math.max(0, peak[0] - heapBefore) / 1024.0 / inFlight);
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            if (executor != null) {
+                executor.close();
+            }
+        }
+    }
+
+    // держит permits.availablePermits() вызовов в полёте до истечения durationMs
+    private static long drive(SearchServiceGrpc.SearchServiceStub stub, SearchRequest req,
+                              int inFlight, long durationMs, Semaphore permits) throws InterruptedException {
+        AtomicLong completed = new AtomicLong();
+        long deadline = System.currentTimeMillis() + durationMs;
+
+        while (System.currentTimeMillis() < deadline) {
+            if (!permits.tryAcquire(100, TimeUnit.MILLISECONDS)) continue;
+
+            stub.search(req, new StreamObserver<>() {
+                @Override
+                public void onNext(SearchResponse value) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    permits.release();
+                }
+
+                @Override
+                public void onCompleted() {
+                    completed.incrementAndGet();
+                    permits.release();
+                }
+            });
+        }
+        permits.acquire(inFlight);
+        return completed.get();
+    }
+
+    // имитация обработчика, заблокированного на ответе ES
+    private static final class BlockingService extends SearchServiceGrpc.SearchServiceImplBase {
+        private final int latencyMs;
+
+        BlockingService(int latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public void search(SearchRequest request, StreamObserver<SearchResponse> responseObserver) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            responseObserver.onNext(SearchResponse.newBuilder()
+                    .addResults(SearchResult.newBuilder().setId("t1").setTitle("Enter Sandman").setScore(1.0f))
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package search.service;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Test;
+import search.service.es.EsSearchRepository;
+import search.service.facet.FacetCache;
+import search.service.hot.HotEntityIndex;
+import search.v1.EntityType;
+import search.v1.SearchRequest;
+import search.v1.SearchResponse;
+import search.v1.SearchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GrpcSearchServiceTest {
+
+    private final AtomicInteger esCalls = new AtomicInteger();
+
+    @Test
+    void confidentHeadQueryIsAnsweredWithoutEs() {
+        Capture out = search(service(null), "metallica", 1);
+
+        assertThat(esCalls).hasValue(0);
+        assertThat(out.ids()).containsExactly("a1");
+    }
+
+    @Test
+    void notConfidentQueryGoesToEs() {
+        // 2 хита нужны, локально есть один
+        Capture out = search(service(null), "metallica", 2);
+
+        assertThat(esCalls).hasValue(1);
+        assertThat(out.ids()).containsExactly("es-1");
+    }
+
+    @Test
+    void esServerErrorIsServedFromHotTier() {
+        Capture out = search(service(esError(503)), "metallica", 2);
+
+        assertThat(out.error).isNull();
+        assertThat(out.ids()).containsExactly("a1");
+    }
+
+    @Test
+    void esClientErrorIsNotMaskedByHotTier() {
+        Capture out = search(service(esError(400)), "metallica", 2);
+
+        assertThat(out.error).isNotNull();
+        assertThat(Status.fromThrowable(out.error).getCode()).isEqualTo(Status.Code.INTERNAL);
+    }
+
+    private static Capture search(GrpcSearchService service, String query, int size) {
+        Capture out = new Capture();
+        service.search(SearchRequest.newBuilder()
+                .setQuery(query).setSize(size).addTypes(EntityType.ARTIST)
+                .build(), out);
+        return out;
+    }
+
+    private GrpcSearchService service(RuntimeException esFailure) {
+        EsSearchRepository es = new EsSearchRepository(null) {
+            @Override
+            public TypeResults searchArtists(String query, int size, Filters filters) {
+                esCalls.incrementAndGet();
+                if (esFailure != null) throw esFailure;
+                return new TypeResults(RawResult.Type.ARTIST,
+                        List.of(new RawResult(RawResult.Type.ARTIST, "es-1", "Metallica", "", 1f)), 1, 1, 0);
+            }
+
+            @Override
+            public List<Map<String, Object>> topByPopularity(RawResult.Type type, int n) {
+                if (type != RawResult.Type.ARTIST) return List.of();
+                return List.of(Map.of("id", "a1", "name", "Metallica", "popularity", 50));
+            }
+        };
+
+        HotEntityIndex hot = new HotEntityIndex(es, true, true, 10, 600_000);
+        hot.refresh();
+        return new GrpcSearchService(es, new EsUpsertRepository(null, null),
+                new FacetCache(es, 100, 300_000, 30_000), new SlowQueryLog(es, -1, 0), hot);
+    }
+
+    private static ElasticsearchException esError(int status) {
+        return new ElasticsearchException("search", ErrorResponse.of(r -> r
+                .status(status)
+                .error(e -> e.type("search_phase_execution_exception").reason("all shards failed"))));
+    }
+
+    private static final class Capture implements StreamObserver<SearchResponse> {
+        final List<SearchResult> results = new ArrayList<>();
+        Throwable error;
+
+        @Override
+        public void onNext(SearchResponse value) {
+            results.addAll(value.getResultsList());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        List<String> ids() {
+            return results.stream().map(SearchResult::getId).toList();
+        }
+    }
+}
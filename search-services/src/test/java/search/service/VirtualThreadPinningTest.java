@@ -0,0 +1,217 @@
+package search.service;
+
+import co.elastic.clients.elasticsearch._types.Result;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.IndexResponse;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
+import io.grpc.stub.StreamObserver;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Test;
+import search.service.es.EsSearchRepository;
+import search.service.facet.FacetCache;
+import search.service.hot.HotEntityIndex;
+import search.v1.Artist;
+import search.v1.BulkUpsertRequest;
+import search.v1.BulkUpsertResponse;
+import search.v1.Entity;
+import search.v1.EntityType;
+import search.v1.FacetsRequest;
+import search.v1.SearchRequest;
+import search.v1.Track;
+import search.v1.UpsertRequest;
+import search.v1.UpsertResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Guard для search.grpc.executor=virtual: обработчики Search/Upsert/BulkUpsert/Facets гоняются
+ * на виртуальных потоках, ES заменён заглушками, которые блокируются как на сетевом ответе.
+ * Тест падает, если JFR видит jdk.VirtualThreadPinned, т.е. блокирующий вызов попал под synchronized.
+ */
+class VirtualThreadPinningTest {
+
+    private static final long ES_LATENCY_MS = 30;
+
+    @Test
+    void handlersDoNotPinCarrierThreads() throws Exception {
+        GrpcSearchService service = service();
+        List<Object> values = new CopyOnWriteArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+        List<RecordedEvent> pinned = recordPinned(() -> {
+            try (ExecutorService vt = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> calls = new ArrayList<>();
+                for (int i = 0; i < 16; i++) {
+                    String id = "t" + i;
+                    calls.add(vt.submit(() -> service.search(
+                            SearchRequest.newBuilder().setQuery("metallica").setSize(10).build(),
+                            new Sink<>(values, errors))));
+                    calls.add(vt.submit(() -> service.upsert(
+                            UpsertRequest.newBuilder().setEntity(track(id)).build(),
+                            new Sink<>(values, errors))));
+                    calls.add(vt.submit(() -> service.bulkUpsert(
+                            BulkUpsertRequest.newBuilder().addEntities(track(id)).addEntities(artist("a" + id)).build(),
+                            new Sink<>(values, errors))));
+                    calls.add(vt.submit(() -> service.facets(
+                            FacetsRequest.getDefaultInstance(),
+                            new Sink<>(values, errors))));
+                }
+                for (Future<?> f : calls) {
+                    f.get(10, TimeUnit.SECONDS);
+                }
+            }
+        });
+
+        assertThat(errors).isEmpty();
+        assertThat(values).hasSize(16 * 4)
+                .noneMatch(v -> v instanceof UpsertResponse r && !r.getOk())
+                .noneMatch(v -> v instanceof BulkUpsertResponse r && r.getSuccess() != 2);
+        assertThat(pinned).as("pinned virtual threads: %s", pinned).isEmpty();
+    }
+
+    // проверка самого детектора: блокировка под synchronized должна давать событие
+    @Test
+    void detectsBlockingInsideSynchronized() throws Exception {
+        Object monitor = new Object();
+
+        List<RecordedEvent> pinned = recordPinned(() -> Thread.ofVirtual().start(() -> {
+            synchronized (monitor) {
+                sleep(ES_LATENCY_MS);
+            }
+        }).join());
+
+        assertThat(pinned).isNotEmpty();
+    }
+
+    private interface Workload {
+        void run() throws Exception;
+    }
+
+    private static List<RecordedEvent> recordPinned(Workload workload) throws Exception {
+        List<RecordedEvent> pinned = new CopyOnWriteArrayList<>();
+        try (RecordingStream rs = new RecordingStream()) {
+            rs.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(1)).withStackTrace();
+            rs.onEvent("jdk.VirtualThreadPinned", pinned::add);
+            rs.startAsync();
+
+            workload.run();
+
+            // stop() дожидается доставки записанных событий
+            rs.stop();
+        }
+        return pinned;
+    }
+
+    private static GrpcSearchService service() {
+        EsSearchRepository es = new EsSearchRepository(null) {
+            @Override
+            public TypeResults searchTracks(String query, int size, Filters filters) {
+                return blockingResults(RawResult.Type.TRACK);
+            }
+
+            @Override
+            public TypeResults searchArtists(String query, int size, Filters filters) {
+                return blockingResults(RawResult.Type.ARTIST);
+            }
+
+            @Override
+            public TypeResults searchPlaylists(String query, int size, Filters filters) {
+                return blockingResults(RawResult.Type.PLAYLIST);
+            }
+
+            @Override
+            public Map<String, Long> termCounts(String index, String field, int maxTerms) {
+                return Map.of("rock", 1L);
+            }
+
+            @Override
+            public Map<Integer, Long> decadeCounts(String index) {
+                return Map.of(1990, 1L);
+            }
+        };
+
+        EsUpsertRepository upserts = new EsUpsertRepository(null, null) {
+            @Override
+            public IndexResponse upsertTrack(Track t) {
+                sleep(ES_LATENCY_MS);
+                return IndexResponse.of(r -> r
+                        .index("tracks").id(t.getId()).result(Result.Updated)
+                        .version(2).seqNo(1).primaryTerm(1)
+                        .shards(s -> s.total(1).successful(1).failed(0)));
+            }
+
+            @Override
+            public BulkResponse bulkUpsert(List<Map<String, Object>> docs, List<EntityType> types, List<String> ids) {
+                sleep(ES_LATENCY_MS);
+                return BulkResponse.of(r -> {
+                    r.errors(false).took(ES_LATENCY_MS);
+                    for (int i = 0; i < docs.size(); i++) {
+                        String id = ids.get(i);
+                        String index = indexName(types.get(i));
+                        r.items(it -> it.operationType(OperationType.Index).index(index).id(id).status(201)
+                                .result("created"));
+                    }
+                    return r;
+                });
+            }
+        };
+
+        FacetCache facets = new FacetCache(es, 100, 300_000, 30_000);
+        facets.reconcile();
+        SlowQueryLog slowLog = new SlowQueryLog(es, 0, 0);
+        HotEntityIndex hot = new HotEntityIndex(es, true, true, 100, 600_000);
+
+        return new GrpcSearchService(es, upserts, facets, slowLog, hot);
+    }
+
+    private static EsSearchRepository.TypeResults blockingResults(EsSearchRepository.RawResult.Type type) {
+        sleep(ES_LATENCY_MS);
+        return new EsSearchRepository.TypeResults(type, List.of(), ES_LATENCY_MS, 1, 0);
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Entity track(String id) {
+        return Entity.newBuilder().setTrack(Track.newBuilder().setId(id).setTitle("Song " + id).setGenre("rock")
+                .addTags("live").setYear(1991).setPopularity(10)).build();
+    }
+
+    private static Entity artist(String id) {
+        return Entity.newBuilder().setArtist(Artist.newBuilder().setId(id).setName("Band " + id).setCountry("US")
+                .setPopularity(10)).build();
+    }
+
+    private record Sink<T>(List<Object> values, List<Throwable> errors) implements StreamObserver<T> {
+
+        @Override
+        public void onNext(T value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            errors.add(t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package search.service.facet;
+
+import org.junit.jupiter.api.Test;
+import search.service.es.EsSearchRepository;
+import search.v1.Entity;
+import search.v1.EntityType;
+import search.v1.Facet;
+import search.v1.FacetBucket;
+import search.v1.Track;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FacetCacheTest {
+
+    @Test
+    void notReadyUntilFirstReconcile() {
+        FacetCache cache = new FacetCache(es(Map.of("rock", 2L), null), 100, 300_000, 30_000);
+        assertThat(cache.ready()).isFalse();
+
+        cache.reconcile();
+
+        assertThat(cache.ready()).isTrue();
+        assertThat(genres(cache)).containsEntry("rock", 2L);
+    }
+
+    @Test
+    void failedFirstReconcileKeepsCacheUnavailable() {
+        FacetCache cache = new FacetCache(new EsSearchRepository(null) {
+            @Override
+            public Map<String, Long> termCounts(String index, String field, int maxTerms) throws IOException {
+                throw new IOException("Connection refused");
+            }
+        }, 100, 300_000, 30_000);
+
+        cache.reconcile();
+
+        assertThat(cache.ready()).isFalse();
+    }
+
+    @Test
+    void updateOfKnownDocumentMovesCountWithoutRebuild() {
+        FacetCache cache = new FacetCache(es(Map.of(), null), 100, 300_000, 30_000);
+        cache.reconcile();
+
+        cache.onIndexed(track("t1", "rock"), true);
+        cache.onIndexed(track("t1", "jazz"), false);
+        cache.onIndexed(track("t1", "jazz"), false);
+
+        assertThat(genres(cache)).containsOnly(Map.entry("jazz", 1L));
+    }
+
+    @Test
+    void deltasDuringRebuildAreReplayedIntoNewCounters() {
+        AtomicReference<FacetCache> ref = new AtomicReference<>();
+        // запись приходит, пока идут агрегации; ES её ещё не видит
+        FacetCache cache = new FacetCache(es(Map.of("rock", 5L), () -> ref.get().onIndexed(track("t9", "pop"), true)),
+                100, 300_000, 30_000);
+        ref.set(cache);
+
+        cache.reconcile();
+
+        assertThat(genres(cache)).containsEntry("rock", 5L).containsEntry("pop", 1L);
+    }
+
+    private static Map<String, Long> genres(FacetCache cache) {
+        Facet genre = cache.facets(Set.of(EntityType.TRACK), 10).stream()
+                .filter(f -> f.getName().equals("genre"))
+                .findFirst().orElseThrow();
+        return genre.getBucketsList().stream()
+                .collect(Collectors.toMap(FacetBucket::getValue, FacetBucket::getCount));
+    }
+
+    private static EsSearchRepository es(Map<String, Long> genres, Runnable duringAggregation) {
+        return new EsSearchRepository(null) {
+            @Override
+            public Map<String, Long> termCounts(String index, String field, int maxTerms) {
+                if (!field.equals(GENRE_FIELD)) return Map.of();
+                if (duringAggregation != null) duringAggregation.run();
+                return genres;
+            }
+
+            @Override
+            public Map<Integer, Long> decadeCounts(String index) {
+                return Map.of();
+            }
+        };
+    }
+
+    private static Entity track(String id, String genre) {
+        return Entity.newBuilder().setTrack(Track.newBuilder().setId(id).setGenre(genre)).build();
+    }
+}
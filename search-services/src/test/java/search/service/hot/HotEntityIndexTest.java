@@ -0,0 +1,250 @@
+package search.service.hot;
+
+import org.junit.jupiter.api.Test;
+import search.service.ProtoMap;
+import search.service.es.EsSearchRepository;
+import search.service.es.EsSearchRepository.RawResult;
+import search.v1.Artist;
+import search.v1.Entity;
+import search.v1.Playlist;
+import search.v1.Track;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotEntityIndexTest {
+
+    private static final Set<RawResult.Type> ALL = EnumSet.allOf(RawResult.Type.class);
+
+    @Test
+    void tokenizeLowercasesSplitsOnNonAlphanumericAndDeduplicates() {
+        assertThat(HotEntityIndex.tokenize("AC/DC — Back in Black, back!"))
+                .containsExactly("ac", "dc", "back", "in", "black");
+        assertThat(HotEntityIndex.tokenize("Кино 1988")).containsExactly("кино", "1988");
+        assertThat(HotEntityIndex.tokenize("  ")).isEmpty();
+        assertThat(HotEntityIndex.tokenize(null)).isEmpty();
+    }
+
+    @Test
+    void scoresBestFieldByBoostAndFieldLength() {
+        HotEntityIndex index = index(10);
+        index.onIndexed(List.of(
+                artist("a1", "Metallica", 50),
+                track("t1", "Enter Sandman", "Metallica", 90),
+                track("t2", "Metallica Medley Live", "Tribute Band", 10)
+        ));
+        index.applyPending();
+
+        List<RawResult> hits = index.search("metallica", ALL, 10).results();
+
+        // name^3 / 1 > artistName^2 / 1 > title^3 / sqrt(3)
+        assertThat(hits).extracting(RawResult::id).containsExactly("a1", "t1", "t2");
+        assertThat(hits.get(0).score()).isGreaterThan(hits.get(1).score());
+    }
+
+    @Test
+    void equalScoresAreOrderedByPopularity() {
+        HotEntityIndex index = index(10);
+        index.onIndexed(List.of(
+                track("t1", "Yesterday", "Beatles", 10),
+                track("t2", "Yesterday", "Beatles", 80)
+        ));
+        index.applyPending();
+
+        assertThat(index.search("yesterday", ALL, 10).results()).extracting(RawResult::id).containsExactly("t2", "t1");
+    }
+
+    @Test
+    void filtersByTypeAndLimitsSize() {
+        HotEntityIndex index = index(10);
+        index.onIndexed(List.of(
+                artist("a1", "Nirvana", 50),
+                track("t1", "Lithium", "Nirvana", 40),
+                track("t2", "Polly", "Nirvana", 30),
+                playlist("p1", "Nirvana essentials", 20)
+        ));
+        index.applyPending();
+
+        assertThat(index.search("nirvana", EnumSet.of(RawResult.Type.TRACK), 10).results())
+                .extracting(RawResult::type).containsOnly(RawResult.Type.TRACK).hasSize(2);
+        assertThat(index.search("nirvana", ALL, 2).results()).hasSize(2);
+        assertThat(index.search("unknown words", ALL, 10).results()).isEmpty();
+    }
+
+    @Test
+    void confidentWhenFullAndEveryHitMatchesAllTokensInTopField() {
+        HotEntityIndex index = index(10);
+        index.onIndexed(List.of(
+                artist("a1", "Metallica", 50),
+                artist("a2", "Metallica Tribute Orchestra", 10),
+                track("t1", "Enter Sandman", "Metallica", 90)
+        ));
+        index.applyPending();
+
+        HotEntityIndex.Result r = index.search("metallica", EnumSet.of(RawResult.Type.ARTIST), 2);
+
+        assertThat(r.confident()).isTrue();
+        assertThat(r.results()).extracting(RawResult::id).containsExactly("a1", "a2");
+        assertThat(index.search("Enter Sandman", ALL, 1).confident()).isTrue();
+    }
+
+    @Test
+    void notConfidentWhenResultSetIsNotFull() {
+        HotEntityIndex index = index(10);
+        index.onIndexed(List.of(artist("a1", "Metallica", 50)));
+        index.applyPending();
+
+        HotEntityIndex.Result r = index.search("metallica", ALL, 2);
+
+        assertThat(r.results()).hasSize(1);
+        assertThat(r.confident()).isFalse();
+    }
+
+    @Test
+    void notConfidentWhenHitMatchesOnlyOutsideTopField() {
+        HotEntityIndex index = index(10);
+        index.onIndexed(List.of(
+                artist("a1", "Metallica", 50),
+                track("t1", "Enter Sandman", "Metallica", 90)
+        ));
+        index.applyPending();
+
+        // t1 совпал только по artistName^2, а не по title^3
+        HotEntityIndex.Result r = index.search("metallica", ALL, 2);
+
+        assertThat(r.results()).extracting(RawResult::id).containsExactly("a1", "t1");
+        assertThat(r.confident()).isFalse();
+    }
+
+    @Test
+    void notConfidentWhenSomeQueryTokenIsMissing() {
+        HotEntityIndex index = index(10);
+        index.onIndexed(List.of(track("t1", "Enter Sandman", "Metallica", 90)));
+        index.applyPending();
+
+        // "live" нет ни в одном поле; "metallica" — не в title
+        assertThat(index.search("enter sandman live", ALL, 1).confident()).isFalse();
+        assertThat(index.search("sandman metallica", ALL, 1).confident()).isFalse();
+    }
+
+    @Test
+    void localAnswerNeedsLoadedIndexAndFlag() {
+        assertThat(index(10).localAnswerEnabled()).isFalse();
+
+        EsSearchRepository es = new EsSearchRepository(null) {
+            @Override
+            public List<Map<String, Object>> topByPopularity(RawResult.Type type, int n) {
+                return List.of();
+            }
+        };
+        HotEntityIndex on = new HotEntityIndex(es, true, true, 10, 60_000);
+        HotEntityIndex off = new HotEntityIndex(es, true, false, 10, 60_000);
+        on.refresh();
+        off.refresh();
+
+        assertThat(on.localAnswerEnabled()).isTrue();
+        assertThat(off.enabled()).isTrue();
+        assertThat(off.localAnswerEnabled()).isFalse();
+    }
+
+    @Test
+    void writesAreVisibleOnlyAfterApply() {
+        HotEntityIndex index = index(10);
+        index.onIndexed(List.of(artist("a1", "Metallica", 50)));
+
+        assertThat(index.search("metallica", ALL, 10).results()).isEmpty();
+        index.applyPending();
+        assertThat(index.search("metallica", ALL, 10).results()).extracting(RawResult::id).containsExactly("a1");
+    }
+
+    @Test
+    void keepsTopNPerTypeByPopularity() {
+        HotEntityIndex index = index(2);
+        index.onIndexed(List.of(
+                track("t1", "Song one", "X", 10),
+                track("t2", "Song two", "X", 30),
+                track("t3", "Song three", "X", 20),
+                track("t4", "Song four", "X", 5),
+                artist("a1", "Song", 1)
+        ));
+        index.applyPending();
+
+        // t1 вытеснен t3, t4 не проходит; артисты считаются отдельно
+        assertThat(index.search("song", EnumSet.of(RawResult.Type.TRACK), 10).results())
+                .extracting(RawResult::id).containsExactlyInAnyOrder("t2", "t3");
+        assertThat(index.search("song", EnumSet.of(RawResult.Type.ARTIST), 10).results())
+                .extracting(RawResult::id).containsExactly("a1");
+    }
+
+    @Test
+    void upsertReplacesIndexedDocument() {
+        HotEntityIndex index = index(1);
+        index.onIndexed(List.of(track("t1", "Old title", "X", 10)));
+        index.applyPending();
+        index.onIndexed(List.of(track("t1", "New title", "X", 5)));
+        index.applyPending();
+
+        assertThat(index.search("old", ALL, 10).results()).isEmpty();
+        assertThat(index.search("new", ALL, 10).results()).extracting(RawResult::title).containsExactly("New title");
+    }
+
+    @Test
+    void refreshKeepsUpsertsThatRaceTheFetch() {
+        AtomicReference<HotEntityIndex> ref = new AtomicReference<>();
+        EsSearchRepository es = new EsSearchRepository(null) {
+            @Override
+            public List<Map<String, Object>> topByPopularity(RawResult.Type type, int n) {
+                if (type != RawResult.Type.TRACK) return List.of();
+                // upsert применяется, пока выборка в полёте; ES отдаёт ещё старую версию
+                ref.get().onIndexed(List.of(track("t1", "New title", "X", 10)));
+                ref.get().applyPending();
+                return List.of(
+                        ProtoMap.toMap(track("t1", "Old title", "X", 10).getTrack()),
+                        ProtoMap.toMap(track("t2", "Other", "X", 5).getTrack()));
+            }
+        };
+        HotEntityIndex index = new HotEntityIndex(es, true, true, 10, 60_000);
+        ref.set(index);
+
+        index.refresh();
+
+        assertThat(index.enabled()).isTrue();
+        assertThat(index.search("old", ALL, 10).results()).isEmpty();
+        assertThat(index.search("new", ALL, 10).results()).extracting(RawResult::id).containsExactly("t1");
+        assertThat(index.search("other", ALL, 10).results()).extracting(RawResult::id).containsExactly("t2");
+    }
+
+    @Test
+    void disabledIndexIgnoresWrites() {
+        HotEntityIndex index = new HotEntityIndex(null, false, true, 10, 60_000);
+        index.onIndexed(List.of(artist("a1", "Metallica", 50)));
+        index.applyPending();
+
+        assertThat(index.enabled()).isFalse();
+        assertThat(index.search("metallica", ALL, 10).results()).isEmpty();
+    }
+
+    static HotEntityIndex index(int topN) {
+        return new HotEntityIndex(null, true, true, topN, 60_000);
+    }
+
+    static Entity track(String id, String title, String artistName, int popularity) {
+        return Entity.newBuilder().setTrack(Track.newBuilder()
+                .setId(id).setTitle(title).setArtistName(artistName).setPopularity(popularity)).build();
+    }
+
+    static Entity artist(String id, String name, int popularity) {
+        return Entity.newBuilder().setArtist(Artist.newBuilder()
+                .setId(id).setName(name).setPopularity(popularity)).build();
+    }
+
+    static Entity playlist(String id, String title, int popularity) {
+        return Entity.newBuilder().setPlaylist(Playlist.newBuilder()
+                .setId(id).setTitle(title).setPopularity(popularity)).build();
+    }
+}